@@ -16,11 +16,11 @@
 package org.example.customgallerypicker.demo.cms.plugins;
 
 import javax.jcr.Node;
-import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 
-import org.apache.commons.lang.StringUtils;
+import org.example.customgallerypicker.demo.repository.trace.OperationTrace;
+import org.example.customgallerypicker.demo.repository.util.BinaryFolderUtils;
 import org.hippoecm.frontend.model.JcrNodeModel;
 import org.hippoecm.frontend.plugin.config.IPluginConfig;
 import org.hippoecm.frontend.plugin.config.impl.AbstractPluginDecorator;
@@ -33,6 +33,10 @@ import org.slf4j.LoggerFactory;
  * Decorating {@link IPluginConfig} implementation
  * which is determining the <code>base.uuid</code> configuration value dynamically at runtime
  * based on the current context document handle node path.
+ * <p>
+ * The <code>base.uuid</code> resolution is traced by {@link OperationTrace} ("picker.resolve" operation),
+ * so a slow one is logged with the time spent in creating the folders, the translation copy and the save.
+ * </p>
  */
 public class BinaryPathDeterminingPluginConfig extends AbstractPluginDecorator {
 
@@ -43,6 +47,13 @@ public class BinaryPathDeterminingPluginConfig extends AbstractPluginDecorator {
      */
     private final JcrNodeModel contextFieldNodeModel;
 
+    /**
+     * The identifier of the context related binary folder node, resolved once per decorator instance,
+     * as <code>base.uuid</code> is read several times while opening a picker dialog.
+     * It stays null if the resolution failed, so the next lookup tries again.
+     */
+    private String contextBaseUuid;
+
     /**
      * Constructor.
      * @param upstream the original upstream {@link IPluginConfig} instance to decorate
@@ -70,7 +81,11 @@ public class BinaryPathDeterminingPluginConfig extends AbstractPluginDecorator {
         Object obj = upstream.get(key);
 
         if (NodePickerControllerSettings.BASE_UUID.equals(key)) {
-            obj = getContextBaseUuid();
+            if (contextBaseUuid == null) {
+                contextBaseUuid = getContextBaseUuid();
+            }
+
+            obj = contextBaseUuid;
         } else if (NodePickerControllerSettings.LAST_VISITED_ENABLED.equals(key)) {
             obj = Boolean.FALSE.toString();
         }
@@ -112,118 +127,29 @@ public class BinaryPathDeterminingPluginConfig extends AbstractPluginDecorator {
     }
 
     /**
-     * Determines the context related binary folder node.
+     * Determines the context related binary folder node, creating the binary folder nodes if not existing.
      * This method can return null if it cannot determine the context related binary folder node.
      * @return the context related binary folder node or null if determination is impossible
      */
     private Node getContextBinaryFolderNode() {
         Node binaryFolderNode = null;
-
-        try {
-            final Node contextDocumentHandleNode = getContextDocumentHandleNode();
-
-            if (contextDocumentHandleNode != null) {
-                binaryFolderNode = createBinaryFolderNodeFor(contextDocumentHandleNode);
-                log.debug("binaryFolderNode: {}", binaryFolderNode.getPath());
-            }
-        } catch (RepositoryException e) {
-            log.error("Repository exception while finding the current context binary folder node.", e);
-        }
-
-        return binaryFolderNode;
-    }
-
-    /**
-     * Creates context related binary folder nodes if not existing, and returns the target binary folder node.
-     * @param contextDocumentHandleNode the context document handle node
-     * @return the target binary folder node.
-     * @throws RepositoryException repository exception if failing to create or get the binary folder nodes.
-     */
-    private Node createBinaryFolderNodeFor(final Node contextDocumentHandleNode) throws RepositoryException {
-        String documentHandleRelPath = StringUtils.removeStart(contextDocumentHandleNode.getPath(), "/content/documents/");
         final Session session = UserSession.get().getJcrSession();
-
-        Node binaryFolderNode = session.getRootNode().getNode("content/gallery");
-        Node documentFolderNode = session.getRootNode().getNode("content/documents");
-
-        Node documentFolderTranslationNode;
-        Node binaryFolderTranslationNode;
-        String translationLanguage;
-        String translationMessage;
-
-        // Find all the node names in the path.
-        String [] nodeNames = StringUtils.split(documentHandleRelPath, "/");
-
-        boolean changed = false;
+        final OperationTrace trace = OperationTrace.begin("picker.resolve", contextFieldNodeModel.getItemModel().getPath());
 
         try {
-            for (String nodeName : nodeNames) {
-                documentFolderNode = documentFolderNode.getNode(nodeName);
-
-                if (binaryFolderNode.hasNode(nodeName)) {
-                    binaryFolderNode = binaryFolderNode.getNode(nodeName);
-                } else {
-                    // add a binary folder node (type of 'hippogallery:stdImageGallery')
-                    binaryFolderNode = binaryFolderNode.addNode(nodeName, "hippogallery:stdImageGallery");
-                    // add needed mixins for binary folder node
-                    binaryFolderNode.addMixin("mix:referenceable");
-                    binaryFolderNode.addMixin("hippo:translated");
-                    // add needed properties for binary folder node
-                    binaryFolderNode.setProperty("hippostd:foldertype", new String [] { "new-image-folder" });
-                    binaryFolderNode.setProperty("hippostd:gallerytype", new String [] { "hippogallery:imageset" });
-
-                    // let's copy all the hippo:translation nodes under the document handle node
-                    // to the binary folder node in order to look nicer for end users.
-                    for (NodeIterator nodeIt = documentFolderNode.getNodes("hippo:translation"); nodeIt.hasNext(); ) {
-                        documentFolderTranslationNode = nodeIt.nextNode();
-
-                        if (documentFolderTranslationNode != null) {
-                            translationLanguage = documentFolderTranslationNode.getProperty("hippo:language").getString();
-                            translationMessage = documentFolderTranslationNode.getProperty("hippo:message").getString();
-
-                            binaryFolderTranslationNode = binaryFolderNode.addNode("hippo:translation", "hippo:translation");
-                            binaryFolderTranslationNode.setProperty("hippo:language", translationLanguage);
-                            binaryFolderTranslationNode.setProperty("hippo:message", translationMessage);
-                        }
-                    }
-
-                    changed = true;
-                }
-            }
+            binaryFolderNode = BinaryFolderUtils.getOrCreateContextBinaryFolderNode(session, contextFieldNodeModel.getNode());
 
-            if (changed) {
-                session.save();
+            if (binaryFolderNode != null) {
+                log.debug("binaryFolderNode: {}", binaryFolderNode.getPath());
             }
         } catch (RepositoryException e) {
+            // the created binary folders are discarded already, and the other pending changes of the editor are kept
             log.error("Repository exception while finding/creating the current context binary folder node.", e);
-            session.refresh(false);
+        } finally {
+            trace.end();
         }
 
         return binaryFolderNode;
     }
 
-    /**
-     * Finds and returns the context document handle node.
-     * @return the context document handle node
-     */
-    private Node getContextDocumentHandleNode() {
-        Node handleNode = null;
-
-        try {
-            Node curNode = contextFieldNodeModel.getNode();
-
-            while (curNode != null && !curNode.isNodeType("hippostdpubwf:document")) {
-                curNode = curNode.getParent();
-            }
-
-            if (curNode != null) {
-                handleNode = curNode.getParent();
-            }
-        } catch (RepositoryException e) {
-            log.error("Repository exception while finding the current context document handle node.", e);
-        }
-
-        return handleNode;
-    }
-
 }
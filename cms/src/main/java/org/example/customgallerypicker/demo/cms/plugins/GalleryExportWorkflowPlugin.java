@@ -0,0 +1,154 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.cms.plugins;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.wicket.ajax.AjaxRequestTarget;
+import org.apache.wicket.behavior.AbstractAjaxBehavior;
+import org.apache.wicket.model.StringResourceModel;
+import org.apache.wicket.request.handler.resource.ResourceStreamRequestHandler;
+import org.apache.wicket.request.resource.ContentDisposition;
+import org.apache.wicket.util.resource.AbstractResourceStreamWriter;
+import org.example.customgallerypicker.demo.repository.export.GalleryZipExporter;
+import org.hippoecm.addon.workflow.StdWorkflow;
+import org.hippoecm.addon.workflow.WorkflowDescriptorModel;
+import org.hippoecm.frontend.plugin.IPluginContext;
+import org.hippoecm.frontend.plugin.config.IPluginConfig;
+import org.hippoecm.frontend.service.render.RenderPlugin;
+import org.hippoecm.frontend.session.UserSession;
+import org.hippoecm.repository.api.Workflow;
+import org.hippoecm.repository.api.WorkflowDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Workflow plugin adding an "Export images" action to document handles and document folders,
+ * which downloads the co-located gallery folder as a zip streamed by {@link GalleryZipExporter}
+ * with the JCR session of the CMS user.
+ * <p>
+ * The action is hidden if the document or folder has no co-located gallery folder.
+ * The same export is available to scripts through <code>GalleryExportServlet</code> at "/cms/export/gallery".
+ * </p>
+ */
+public class GalleryExportWorkflowPlugin extends RenderPlugin<WorkflowDescriptor> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static Logger log = LoggerFactory.getLogger(GalleryExportWorkflowPlugin.class);
+
+    private final ZipDownloadBehavior downloadBehavior;
+
+    /**
+     * Constructor.
+     * @param context plugin context
+     * @param config plugin config
+     */
+    public GalleryExportWorkflowPlugin(final IPluginContext context, final IPluginConfig config) {
+        super(context, config);
+
+        downloadBehavior = new ZipDownloadBehavior();
+        add(downloadBehavior);
+
+        final StdWorkflow<Workflow> exportAction = new StdWorkflow<Workflow>("export",
+                new StringResourceModel("export-label", this, null), context, getWorkflowDescriptorModel()) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected String execute(Workflow workflow) throws Exception {
+                final AjaxRequestTarget target = getRequestCycle().find(AjaxRequestTarget.class);
+
+                if (target != null) {
+                    target.appendJavaScript("setTimeout(\"window.location.href='" + downloadBehavior.getCallbackUrl() + "'\", 100);");
+                }
+
+                return null;
+            }
+        };
+
+        exportAction.setVisible(hasGalleryFolder());
+        add(exportAction);
+    }
+
+    private WorkflowDescriptorModel getWorkflowDescriptorModel() {
+        return (WorkflowDescriptorModel) getDefaultModel();
+    }
+
+    private String getDocumentPath() {
+        try {
+            final Node node = getWorkflowDescriptorModel().getNode();
+            return (node != null ? node.getPath() : null);
+        } catch (RepositoryException e) {
+            log.error("Repository exception while reading the workflow subject path.", e);
+            return null;
+        }
+    }
+
+    private boolean hasGalleryFolder() {
+        final String galleryFolderPath = GalleryZipExporter.getGalleryFolderPath(getDocumentPath());
+
+        try {
+            return galleryFolderPath != null && UserSession.get().getJcrSession().nodeExists(galleryFolderPath);
+        } catch (RepositoryException e) {
+            log.error("Repository exception while checking the gallery folder.", e);
+            return false;
+        }
+    }
+
+    /**
+     * Behavior streaming the zip as an attachment when its callback URL is requested by the browser.
+     */
+    private class ZipDownloadBehavior extends AbstractAjaxBehavior {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void onRequest() {
+            final String documentPath = getDocumentPath();
+
+            final AbstractResourceStreamWriter stream = new AbstractResourceStreamWriter() {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                public void write(OutputStream output) throws IOException {
+                    try {
+                        new GalleryZipExporter(UserSession.get().getJcrSession()).export(documentPath, output);
+                    } catch (RepositoryException e) {
+                        log.error("Repository exception while exporting gallery folder.", e);
+                        throw new IOException(e);
+                    }
+                }
+
+                @Override
+                public String getContentType() {
+                    return "application/zip";
+                }
+            };
+
+            final ResourceStreamRequestHandler handler = new ResourceStreamRequestHandler(stream,
+                    StringUtils.substringAfterLast(documentPath, "/") + "-images.zip");
+            handler.setContentDisposition(ContentDisposition.ATTACHMENT);
+            getComponent().getRequestCycle().scheduleRequestHandlerAfterCurrent(handler);
+        }
+    }
+}
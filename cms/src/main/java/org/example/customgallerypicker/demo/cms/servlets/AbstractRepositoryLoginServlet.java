@@ -0,0 +1,112 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.cms.servlets;
+
+import java.io.IOException;
+
+import javax.jcr.LoginException;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.bind.DatatypeConverter;
+
+import org.apache.commons.lang.StringUtils;
+import org.hippoecm.repository.HippoRepository;
+import org.hippoecm.repository.HippoRepositoryFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Base servlet logging in to the repository with the HTTP Basic Authentication credentials of the request,
+ * so that all the repository operations of the subclass are authorized for the CMS user.
+ * <p>
+ * The repository address can be configured by the <code>repository-address</code> init parameter ("vm://" by default).
+ * </p>
+ */
+public abstract class AbstractRepositoryLoginServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static Logger log = LoggerFactory.getLogger(AbstractRepositoryLoginServlet.class);
+
+    private String repositoryAddress;
+
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        repositoryAddress = StringUtils.defaultIfBlank(getInitParameter("repository-address"), "vm://");
+    }
+
+    /**
+     * Logs in to the repository with the Basic Authentication credentials of the request.
+     * If the credentials are missing or invalid, this sends an unauthorized response and returns null.
+     * The caller is responsible for logging out the returned session.
+     * @param request servlet request
+     * @param response servlet response
+     * @return a JCR session of the requesting user, or null if not authenticated
+     * @throws IOException IO exception
+     * @throws RepositoryException repository exception
+     */
+    protected Session login(final HttpServletRequest request, final HttpServletResponse response) throws IOException, RepositoryException {
+        final String authorization = request.getHeader("Authorization");
+        String [] credentials = null;
+
+        if (StringUtils.startsWithIgnoreCase(authorization, "Basic ")) {
+            try {
+                credentials = StringUtils.split(new String(DatatypeConverter.parseBase64Binary(authorization.substring(6).trim()), "UTF-8"), ":", 2);
+            } catch (IllegalArgumentException e) {
+                log.debug("Invalid basic authorization header: {}", e.toString());
+            }
+        }
+
+        if (credentials != null && credentials.length == 2) {
+            try {
+                final HippoRepository repository = HippoRepositoryFactory.getHippoRepository(repositoryAddress);
+                return repository.login(credentials[0], credentials[1].toCharArray());
+            } catch (LoginException e) {
+                log.info("Login failed for user '{}'.", credentials[0]);
+            }
+        }
+
+        response.setHeader("WWW-Authenticate", "Basic realm=\"Hippo CMS\"");
+        response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+        return null;
+    }
+
+    /**
+     * Returns the integer request parameter value, or {@code defaultValue} if missing or invalid.
+     * @param request servlet request
+     * @param name parameter name
+     * @param defaultValue default value
+     * @return the integer request parameter value
+     */
+    protected int getIntParameter(final HttpServletRequest request, final String name, final int defaultValue) {
+        final String value = request.getParameter(name);
+
+        if (StringUtils.isNumeric(value) && StringUtils.isNotEmpty(value)) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                log.debug("Invalid number parameter '{}': {}", name, value);
+            }
+        }
+
+        return defaultValue;
+    }
+}
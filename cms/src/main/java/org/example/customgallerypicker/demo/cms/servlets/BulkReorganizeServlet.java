@@ -0,0 +1,211 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.cms.servlets;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.AccessDeniedException;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.BooleanUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+import org.example.customgallerypicker.demo.repository.cluster.RepositoryLease;
+import org.example.customgallerypicker.demo.repository.reorganize.BulkReorganizeReport;
+import org.example.customgallerypicker.demo.repository.reorganize.BulkReorganizer;
+import org.example.customgallerypicker.demo.repository.reorganize.DocumentMove;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Servlet moving many documents with their binary folders by {@link BulkReorganizer}.
+ * The request body lists one move per line as <code>&lt;source document path&gt; -&gt; &lt;target folder path&gt;</code>,
+ * with paths absolute or relative to the documents root folder; blank lines and lines starting with '#' are ignored.
+ * For example:
+ * <pre>
+ * curl -u admin:admin -H "Content-Type: text/plain" --data-binary @moves.txt \
+ *      "http://localhost:8080/cms/reorganize/documents?batchSize=200&amp;dryRun=false"
+ * </pre>
+ * The progress is streamed in the response as one report line per batch, followed by the final report
+ * and the skip and failure messages.
+ * <p>
+ * Unless it's a dry run, the moves are applied only while holding the {@link RepositoryLease} at the
+ * <code>lease-path</code> init parameter path, renewed along the moves, with a time to live of
+ * <code>lease-ttl-seconds</code> (default 300). A request made while another bulk reorganization holds the lease,
+ * on any cluster node, is rejected with 409 Conflict. If the lease cannot be written, the request is rejected
+ * with 403 Forbidden when the user may not write it, or with 500 Internal Server Error otherwise.
+ * </p>
+ */
+public class BulkReorganizeServlet extends AbstractRepositoryLoginServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static Logger log = LoggerFactory.getLogger(BulkReorganizeServlet.class);
+
+    private static final String MOVE_SEPARATOR = "->";
+
+    /**
+     * Default lease node path, next to the binary folder synchronization journal and lease.
+     */
+    private static final String DEFAULT_LEASE_PATH = "/hippo:configuration/hippo:modules/binarypathupdater/hippo:moduleconfig/reorganizelease";
+
+    private String leasePath;
+
+    private long leaseTtlMillis;
+
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        leasePath = StringUtils.defaultIfBlank(getInitParameter("lease-path"), DEFAULT_LEASE_PATH);
+        leaseTtlMillis = TimeUnit.SECONDS.toMillis(NumberUtils.toLong(getInitParameter("lease-ttl-seconds"), 300L));
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        Session session = null;
+        Session leaseSession = null;
+        RepositoryLease lease = null;
+
+        try {
+            session = login(request, response);
+
+            if (session == null) {
+                return;
+            }
+
+            final List<DocumentMove> moves = readMoves(request);
+
+            if (moves == null) {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                        "Each line must be '<source document path> " + MOVE_SEPARATOR + " <target folder path>'.");
+                return;
+            }
+
+            final boolean dryRun = BooleanUtils.toBoolean(request.getParameter("dryRun"));
+
+            if (!dryRun) {
+                // the lease refreshes its own session, so it must not share the session of the moves
+                leaseSession = login(request, response);
+
+                if (leaseSession == null) {
+                    return;
+                }
+
+                // unique per run, so two requests on the same cluster node don't share the lease
+                lease = new RepositoryLease(leaseSession, leasePath,
+                        RepositoryLease.getDefaultOwnerId() + "/" + Long.toString(System.nanoTime(), 36), leaseTtlMillis);
+
+                if (!lease.tryAcquire()) {
+                    final RepositoryException failure = lease.getLastFailure();
+
+                    if (failure instanceof AccessDeniedException) {
+                        response.sendError(HttpServletResponse.SC_FORBIDDEN, "Not allowed to write the lease at " + leasePath + ".");
+                    } else if (failure != null) {
+                        log.error("Failed to write the bulk reorganization lease at '" + leasePath + "'.", failure);
+                        response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, failure.toString());
+                    } else {
+                        response.sendError(HttpServletResponse.SC_CONFLICT, "Another bulk reorganization is running.");
+                    }
+                    return;
+                }
+            }
+
+            response.setContentType("text/plain");
+            response.setCharacterEncoding("UTF-8");
+            final PrintWriter writer = response.getWriter();
+
+            final BulkReorganizer reorganizer = new BulkReorganizer(session);
+            reorganizer.setBatchSize(getIntParameter(request, "batchSize", 100));
+            reorganizer.setDryRun(dryRun);
+            reorganizer.setLease(lease);
+            reorganizer.setProgressListener(new BulkReorganizer.ProgressListener() {
+                @Override
+                public void batchApplied(BulkReorganizeReport report) {
+                    writer.println(report);
+                    writer.flush();
+                }
+            });
+
+            final BulkReorganizeReport report = reorganizer.reorganize(moves);
+
+            writer.println(report);
+
+            for (String message : report.getMessages()) {
+                writer.println(message);
+            }
+        } catch (RepositoryException e) {
+            log.error("Repository exception while reorganizing documents.", e);
+
+            if (!response.isCommitted()) {
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.toString());
+            }
+        } finally {
+            if (lease != null) {
+                lease.release();
+            }
+
+            if (leaseSession != null) {
+                leaseSession.logout();
+            }
+
+            if (session != null) {
+                session.logout();
+            }
+        }
+    }
+
+    /**
+     * Reads the moves from the request body.
+     * @param request servlet request
+     * @return the moves, or null if a line is invalid
+     * @throws IOException IO exception
+     */
+    private List<DocumentMove> readMoves(final HttpServletRequest request) throws IOException {
+        final List<DocumentMove> moves = new ArrayList<DocumentMove>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(request.getInputStream(), "UTF-8"));
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            final String source = StringUtils.trim(StringUtils.substringBefore(line, MOVE_SEPARATOR));
+            final String target = StringUtils.trim(StringUtils.substringAfter(line, MOVE_SEPARATOR));
+
+            if (StringUtils.isEmpty(source) || StringUtils.isEmpty(target)) {
+                log.info("Invalid move line: {}", line);
+                return null;
+            }
+
+            moves.add(new DocumentMove(source, target));
+        }
+
+        return moves;
+    }
+}
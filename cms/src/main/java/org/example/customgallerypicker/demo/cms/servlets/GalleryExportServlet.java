@@ -0,0 +1,84 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.cms.servlets;
+
+import java.io.IOException;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.StringUtils;
+import org.example.customgallerypicker.demo.repository.export.GalleryZipExporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Servlet streaming the gallery folder co-located with a document handle or a document folder as a zip by
+ * {@link GalleryZipExporter}. For example:
+ * <pre>
+ * curl -u admin:admin -o images.zip "http://localhost:8080/cms/export/gallery?path=/content/documents/customgallerypickerdemo/news"
+ * </pre>
+ */
+public class GalleryExportServlet extends AbstractRepositoryLoginServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static Logger log = LoggerFactory.getLogger(GalleryExportServlet.class);
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        final String path = StringUtils.removeEnd(request.getParameter("path"), "/");
+
+        if (GalleryZipExporter.getGalleryFolderPath(path) == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid document path: " + path);
+            return;
+        }
+
+        Session session = null;
+
+        try {
+            session = login(request, response);
+
+            if (session == null) {
+                return;
+            }
+
+            if (!session.nodeExists(GalleryZipExporter.getGalleryFolderPath(path))) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND, "No gallery folder for " + path);
+                return;
+            }
+
+            response.setContentType("application/zip");
+            response.setHeader("Content-Disposition",
+                    "attachment; filename=\"" + StringUtils.substringAfterLast(path, "/") + "-images.zip\"");
+
+            new GalleryZipExporter(session).export(path, response.getOutputStream());
+        } catch (RepositoryException e) {
+            log.error("Repository exception while exporting gallery folder.", e);
+
+            if (!response.isCommitted()) {
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.toString());
+            }
+        } finally {
+            if (session != null) {
+                session.logout();
+            }
+        }
+    }
+}
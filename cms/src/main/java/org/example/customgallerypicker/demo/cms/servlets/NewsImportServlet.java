@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.cms.servlets;
+
+import java.io.IOException;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.example.customgallerypicker.demo.repository.importer.NewsArchiveImportReport;
+import org.example.customgallerypicker.demo.repository.importer.NewsArchiveImporter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Servlet importing a zip archive of news documents and images posted as the request body
+ * by {@link NewsArchiveImporter}, responding with the import report. For example:
+ * <pre>
+ * curl -u admin:admin -H "Content-Type: application/zip" --data-binary @news.zip \
+ *      "http://localhost:8080/cms/import/news?batchSize=200&amp;threads=4"
+ * </pre>
+ * The request body is streamed straight into the importer, so it is never buffered as a whole.
+ */
+public class NewsImportServlet extends AbstractRepositoryLoginServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static Logger log = LoggerFactory.getLogger(NewsImportServlet.class);
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        Session session = null;
+
+        try {
+            session = login(request, response);
+
+            if (session == null) {
+                return;
+            }
+
+            final NewsArchiveImporter importer = new NewsArchiveImporter(session);
+            importer.setBatchSize(getIntParameter(request, "batchSize", 100));
+            importer.setThreads(getIntParameter(request, "threads", Runtime.getRuntime().availableProcessors()));
+
+            if (request.getParameter("locale") != null) {
+                importer.setDefaultLocale(request.getParameter("locale"));
+            }
+
+            final NewsArchiveImportReport report = importer.importArchive(request.getInputStream());
+
+            response.setContentType("text/plain");
+            response.setCharacterEncoding("UTF-8");
+            response.getWriter().println(report);
+        } catch (RepositoryException e) {
+            log.error("Repository exception while importing news archive.", e);
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.toString());
+        } finally {
+            if (session != null) {
+                session.logout();
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.repository.cluster;
+
+import java.lang.management.ManagementFactory;
+import java.util.Calendar;
+
+import javax.jcr.InvalidItemStateException;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Repository backed lease, electing a single holder among the cluster nodes sharing the repository
+ * for the heavy background work which must run exactly once across the cluster.
+ * <p>
+ * The lease is stored as the <code>owner</code> and <code>expires</code> (epoch millis) properties
+ * of an {@code nt:unstructured} node. A cluster node acquires the lease if it is free or expired,
+ * and must renew it by calling {@link #tryAcquire()} again well before it expires (e.g. every third of the TTL),
+ * or by calling {@link #renewIfDue()} as often as it likes from its own work.
+ * If the holder dies, the lease expires and another cluster node acquires it on its next attempt.
+ * Concurrent acquisitions are resolved by the repository: the save of the losing cluster node fails
+ * with a stale item state.
+ * </p>
+ * <p>
+ * The lease relies on the cluster node clocks being synchronized within a small fraction of the TTL.
+ * </p>
+ * <p>
+ * Each kind of work has its own lease node:
+ * </p>
+ * <ul>
+ * <li>the binary folder synchronization journal replay of <code>BinaryPathUpdaterModule</code>,</li>
+ * <li>the content hash store rebuild of <code>ContentHashIndexModule</code>,</li>
+ * <li>the bulk document moves of <code>BulkReorganizeServlet</code>, with an owner identifier per request.</li>
+ * </ul>
+ */
+public class RepositoryLease {
+
+    private static Logger log = LoggerFactory.getLogger(RepositoryLease.class);
+
+    /**
+     * System property of the Jackrabbit cluster node identifier.
+     */
+    public static final String CLUSTER_NODE_ID_PROP = "org.apache.jackrabbit.core.cluster.node_id";
+
+    private static final String OWNER_PROP = "owner";
+
+    private static final String EXPIRES_PROP = "expires";
+
+    private static final String HEARTBEAT_PROP = "heartbeat";
+
+    private final Session session;
+
+    private final String leasePath;
+
+    private final String ownerId;
+
+    private final long ttlMillis;
+
+    private boolean held;
+
+    private long heldUntil;
+
+    private RepositoryException lastFailure;
+
+    /**
+     * Constructor.
+     * @param session JCR session dedicated to the lease
+     * @param leasePath lease node path, which is created if not existing
+     * @param ownerId identifier of this cluster node
+     * @param ttlMillis lease time to live in milliseconds
+     */
+    public RepositoryLease(final Session session, final String leasePath, final String ownerId, final long ttlMillis) {
+        this.session = session;
+        this.leasePath = leasePath;
+        this.ownerId = ownerId;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Returns the cluster node identifier from the Jackrabbit cluster system property,
+     * or the JVM runtime name (e.g. "pid@hostname") if not clustered.
+     * @return the cluster node identifier
+     */
+    public static String getDefaultOwnerId() {
+        return StringUtils.defaultIfBlank(System.getProperty(CLUSTER_NODE_ID_PROP), ManagementFactory.getRuntimeMXBean().getName());
+    }
+
+    public String getOwnerId() {
+        return ownerId;
+    }
+
+    /**
+     * Acquires the lease if it is free or expired, or renews it if held by this cluster node.
+     * If it returns false, {@link #getLastFailure()} tells whether the lease is held by another owner
+     * or could not be written.
+     * @return true if this cluster node holds the lease afterward
+     */
+    public synchronized boolean tryAcquire() {
+        lastFailure = null;
+
+        try {
+            session.refresh(false);
+
+            final Node leaseNode = getOrCreateLeaseNode();
+            final long now = System.currentTimeMillis();
+            final String owner = (leaseNode.hasProperty(OWNER_PROP) ? leaseNode.getProperty(OWNER_PROP).getString() : null);
+            final long expires = (leaseNode.hasProperty(EXPIRES_PROP) ? leaseNode.getProperty(EXPIRES_PROP).getLong() : 0L);
+
+            if (owner != null && !ownerId.equals(owner) && expires > now) {
+                held = false;
+                return false;
+            }
+
+            leaseNode.setProperty(OWNER_PROP, ownerId);
+            leaseNode.setProperty(EXPIRES_PROP, now + ttlMillis);
+            leaseNode.setProperty(HEARTBEAT_PROP, Calendar.getInstance());
+            session.save();
+
+            held = true;
+            heldUntil = now + ttlMillis;
+        } catch (InvalidItemStateException e) {
+            log.debug("Another owner acquired or renewed the lease at '{}' concurrently: {}", leasePath, e.toString());
+            held = false;
+            refreshQuietly();
+        } catch (RepositoryException e) {
+            log.debug("Failed to acquire or renew the lease at '{}': {}", leasePath, e.toString());
+            lastFailure = e;
+            held = false;
+            refreshQuietly();
+        }
+
+        return held;
+    }
+
+    /**
+     * Renews the lease if held by this cluster node and a third of the TTL has passed since the last renewal,
+     * so a long running holder may call it as often as it likes, e.g. for every unit of work.
+     * @return true if this cluster node still holds the lease
+     */
+    public synchronized boolean renewIfDue() {
+        if (!held) {
+            return false;
+        }
+
+        if (System.currentTimeMillis() < heldUntil - ttlMillis * 2 / 3) {
+            return true;
+        }
+
+        return tryAcquire();
+    }
+
+    /**
+     * Returns the exception which prevented the last {@link #tryAcquire()} from writing the lease,
+     * e.g. an {@link javax.jcr.AccessDeniedException}, or null if the lease was acquired or is held by another owner.
+     * @return the exception of the last failed lease write, or null
+     */
+    public synchronized RepositoryException getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Returns true if this cluster node holds the lease and it has not expired since the last renewal.
+     * @return true if this cluster node holds the lease
+     */
+    public synchronized boolean isHeld() {
+        return held && System.currentTimeMillis() < heldUntil;
+    }
+
+    /**
+     * Releases the lease if held by this cluster node, so that another cluster node can take over immediately.
+     */
+    public synchronized void release() {
+        if (!held) {
+            return;
+        }
+
+        held = false;
+
+        try {
+            session.refresh(false);
+
+            if (session.nodeExists(leasePath)) {
+                final Node leaseNode = session.getNode(leasePath);
+
+                if (leaseNode.hasProperty(OWNER_PROP) && ownerId.equals(leaseNode.getProperty(OWNER_PROP).getString())) {
+                    leaseNode.setProperty(EXPIRES_PROP, 0L);
+                    session.save();
+                }
+            }
+        } catch (RepositoryException e) {
+            log.warn("Failed to release the lease at '{}': {}", leasePath, e.toString());
+            refreshQuietly();
+        }
+    }
+
+    private Node getOrCreateLeaseNode() throws RepositoryException {
+        if (session.nodeExists(leasePath)) {
+            return session.getNode(leasePath);
+        }
+
+        final int offset = leasePath.lastIndexOf('/');
+        final Node leaseNode = session.getNode(leasePath.substring(0, offset)).addNode(leasePath.substring(offset + 1), "nt:unstructured");
+        session.save();
+        return leaseNode;
+    }
+
+    private void refreshQuietly() {
+        try {
+            session.refresh(false);
+        } catch (RepositoryException re) {
+            log.error("Failed to refresh the session.", re);
+        }
+    }
+}
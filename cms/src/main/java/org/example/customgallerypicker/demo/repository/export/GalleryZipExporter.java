@@ -0,0 +1,169 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.repository.export;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.jcr.Binary;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.example.customgallerypicker.demo.repository.util.BinaryFolderUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the original images of the gallery folder co-located with a document handle or a document folder
+ * (e.g. "/content/gallery/a/b/doc/" for "/content/documents/a/b/doc") into a zip stream, including all its subfolders.
+ * <p>
+ * Each binary is copied straight from the repository binary stream into the zip stream with a small buffer,
+ * so no image is ever held in heap as a whole. As images are already compressed, the entries are deflated
+ * with the fastest compression level.
+ * </p>
+ */
+public class GalleryZipExporter {
+
+    private static Logger log = LoggerFactory.getLogger(GalleryZipExporter.class);
+
+    private static final String ORIGINAL_VARIANT_NAME = "hippogallery:original";
+
+    private final Session session;
+
+    /**
+     * Constructor.
+     * @param session JCR session to read the gallery with
+     */
+    public GalleryZipExporter(final Session session) {
+        this.session = session;
+    }
+
+    /**
+     * Returns the co-located gallery folder path of a document handle or document folder path,
+     * or null if the path is not under the documents root folder.
+     * @param documentPath document handle or document folder path
+     * @return the gallery folder path, or null if the path is not under the documents root folder
+     */
+    public static String getGalleryFolderPath(final String documentPath) {
+        if (!StringUtils.startsWith(documentPath, BinaryFolderUtils.DOCUMENTS_ROOT_PATH + "/")) {
+            return null;
+        }
+
+        return BinaryFolderUtils.getBinaryFolderPath(documentPath);
+    }
+
+    /**
+     * Writes the original images in the gallery folder co-located with {@code documentPath} and its subfolders
+     * into a zip stream on {@code out}, with entry names relative to the parent of the gallery folder.
+     * @param documentPath document handle or document folder path
+     * @param out output stream, which is not closed by this method
+     * @return the number of exported images, or -1 if there's no co-located gallery folder
+     * @throws IOException IO exception
+     * @throws RepositoryException repository exception
+     */
+    public int export(final String documentPath, final OutputStream out) throws IOException, RepositoryException {
+        final String galleryFolderPath = getGalleryFolderPath(documentPath);
+
+        if (galleryFolderPath == null || !session.nodeExists(galleryFolderPath)) {
+            return -1;
+        }
+
+        final Node galleryFolderNode = session.getNode(galleryFolderPath);
+        final ZipOutputStream zout = new ZipOutputStream(out);
+        zout.setLevel(Deflater.BEST_SPEED);
+
+        final int count = exportFolder(galleryFolderNode, galleryFolderNode.getName(), zout);
+
+        zout.finish();
+        zout.flush();
+
+        log.info("Exported {} images from {}", count, galleryFolderPath);
+
+        return count;
+    }
+
+    private int exportFolder(final Node folderNode, final String entryPath, final ZipOutputStream zout)
+            throws IOException, RepositoryException {
+        int count = 0;
+        Node childNode;
+
+        for (NodeIterator nodeIt = folderNode.getNodes(); nodeIt.hasNext(); ) {
+            childNode = nodeIt.nextNode();
+
+            if (childNode == null) {
+                continue;
+            }
+
+            if (childNode.isNodeType("hippo:handle")) {
+                if (exportImage(childNode, entryPath + "/" + childNode.getName(), zout)) {
+                    count++;
+                }
+            } else if (childNode.isNodeType("hippostd:folder") || childNode.isNodeType("hippostd:directory")) {
+                count += exportFolder(childNode, entryPath + "/" + childNode.getName(), zout);
+            }
+        }
+
+        return count;
+    }
+
+    private boolean exportImage(final Node handleNode, final String entryName, final ZipOutputStream zout)
+            throws IOException, RepositoryException {
+        if (!handleNode.hasNode(handleNode.getName())) {
+            return false;
+        }
+
+        final Node imageSetNode = handleNode.getNode(handleNode.getName());
+
+        if (!imageSetNode.hasNode(ORIGINAL_VARIANT_NAME)) {
+            return false;
+        }
+
+        final Node originalNode = imageSetNode.getNode(ORIGINAL_VARIANT_NAME);
+
+        if (!originalNode.hasProperty("jcr:data")) {
+            return false;
+        }
+
+        final ZipEntry entry = new ZipEntry(entryName);
+
+        if (originalNode.hasProperty("jcr:lastModified")) {
+            entry.setTime(originalNode.getProperty("jcr:lastModified").getDate().getTimeInMillis());
+        }
+
+        final Binary binary = originalNode.getProperty("jcr:data").getBinary();
+        InputStream input = null;
+
+        try {
+            input = binary.getStream();
+            zout.putNextEntry(entry);
+            IOUtils.copyLarge(input, zout);
+            zout.closeEntry();
+        } finally {
+            IOUtils.closeQuietly(input);
+            binary.dispose();
+        }
+
+        return true;
+    }
+}
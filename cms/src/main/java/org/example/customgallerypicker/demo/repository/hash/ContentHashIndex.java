@@ -0,0 +1,67 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.repository.hash;
+
+import java.util.Set;
+
+/**
+ * Index of the SHA-256 content hashes of the original gallery images, registered in the
+ * <code>HippoServiceRegistry</code> so that an upload can find an existing identical image in constant time
+ * and offer to link it instead of storing another copy.
+ * <p>
+ * The index may contain stale entries of deleted images, so callers should check that a returned handle still exists.
+ * </p>
+ */
+public interface ContentHashIndex {
+
+    /**
+     * Message digest algorithm of the content hashes.
+     */
+    String ALGORITHM = "SHA-256";
+
+    /**
+     * Returns the identifiers of the image set handles of which the original image has the content hash.
+     * @param hash lower case hexadecimal content hash
+     * @return the identifiers of the image set handles, or an empty set if none
+     */
+    Set<String> getImageHandleIds(String hash);
+
+    /**
+     * Returns the content hash of the original image of the image set handle, or null if not indexed.
+     * @param imageHandleId image set handle identifier
+     * @return the content hash, or null if not indexed
+     */
+    String getHash(String imageHandleId);
+
+    /**
+     * Puts the content hash of the original image of the image set handle, replacing the previous one if any.
+     * @param hash lower case hexadecimal content hash
+     * @param imageHandleId image set handle identifier
+     */
+    void put(String hash, String imageHandleId);
+
+    /**
+     * Removes the image set handle from the index.
+     * @param imageHandleId image set handle identifier
+     */
+    void remove(String imageHandleId);
+
+    /**
+     * Returns the number of indexed image set handles.
+     * @return the number of indexed image set handles
+     */
+    int size();
+}
@@ -0,0 +1,218 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.repository.hash;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Durable store of the content hashes of {@link ContentHashIndex}, shared by all the cluster nodes,
+ * so that a (re)starting cluster node loads the hashes instead of hashing every gallery image again.
+ * <p>
+ * The hashes are stored as string properties named by the image set handle identifier, on {@code nt:unstructured}
+ * bucket nodes named by the first two characters of the identifier under the store node,
+ * keeping the number of properties per node small.
+ * The store uses its own session, so the callers may discard their own changes without affecting the store.
+ * </p>
+ */
+public class ContentHashStore {
+
+    /**
+     * Length of the handle identifier prefix naming the bucket node.
+     */
+    private static final int BUCKET_NAME_LENGTH = 2;
+
+    private final Session session;
+
+    private final String storePath;
+
+    /**
+     * Constructor.
+     * @param session JCR session dedicated to the store
+     * @param storePath the store node path, which is created if not existing
+     * @throws RepositoryException repository exception
+     */
+    public ContentHashStore(final Session session, final String storePath) throws RepositoryException {
+        this.session = session;
+        this.storePath = storePath;
+
+        if (!session.nodeExists(storePath)) {
+            final int offset = storePath.lastIndexOf('/');
+            session.getNode(storePath.substring(0, offset)).addNode(storePath.substring(offset + 1), "nt:unstructured");
+            session.save();
+        }
+    }
+
+    public String getStorePath() {
+        return storePath;
+    }
+
+    /**
+     * Returns the image set handle identifier stored at the property path, or null if it's not a hash property path.
+     * @param propertyPath property path under the store node
+     * @return the image set handle identifier, or null if it's not a hash property path
+     */
+    public String getImageHandleId(final String propertyPath) {
+        if (!StringUtils.startsWith(propertyPath, storePath + "/")) {
+            return null;
+        }
+
+        final String [] names = StringUtils.split(propertyPath.substring(storePath.length() + 1), '/');
+
+        if (names.length != 2 || names[1].indexOf(':') != -1 || !names[1].startsWith(names[0])) {
+            return null;
+        }
+
+        return names[1];
+    }
+
+    /**
+     * Returns the stored content hash of the image set handle, or null if not stored.
+     * @param imageHandleId image set handle identifier
+     * @return the stored content hash, or null if not stored
+     * @throws RepositoryException repository exception
+     */
+    public synchronized String getHash(final String imageHandleId) throws RepositoryException {
+        final String propertyPath = getPropertyPath(imageHandleId);
+        return session.propertyExists(propertyPath) ? session.getProperty(propertyPath).getString() : null;
+    }
+
+    /**
+     * Loads all the stored content hashes.
+     * @return content hashes mapped by image set handle identifier
+     * @throws RepositoryException repository exception
+     */
+    public synchronized Map<String, String> loadAll() throws RepositoryException {
+        final Map<String, String> hashes = new HashMap<String, String>();
+        Property property;
+
+        for (NodeIterator nodeIt = session.getNode(storePath).getNodes(); nodeIt.hasNext(); ) {
+            for (PropertyIterator propIt = nodeIt.nextNode().getProperties(); propIt.hasNext(); ) {
+                property = propIt.nextProperty();
+
+                if (property.getName().indexOf(':') == -1) {
+                    hashes.put(property.getName(), property.getString());
+                }
+            }
+        }
+
+        return hashes;
+    }
+
+    /**
+     * Returns the names of the bucket nodes, so the callers may go through the store one bucket at a time.
+     * @return bucket node names
+     * @throws RepositoryException repository exception
+     */
+    public synchronized List<String> getBucketNames() throws RepositoryException {
+        final List<String> bucketNames = new ArrayList<String>();
+
+        for (NodeIterator nodeIt = session.getNode(storePath).getNodes(); nodeIt.hasNext(); ) {
+            bucketNames.add(nodeIt.nextNode().getName());
+        }
+
+        return bucketNames;
+    }
+
+    /**
+     * Returns the image set handle identifiers stored in the bucket node.
+     * @param bucketName bucket node name
+     * @return image set handle identifiers, empty if the bucket node doesn't exist
+     * @throws RepositoryException repository exception
+     */
+    public synchronized List<String> getImageHandleIds(final String bucketName) throws RepositoryException {
+        final List<String> imageHandleIds = new ArrayList<String>();
+        final String bucketPath = storePath + "/" + bucketName;
+
+        if (session.nodeExists(bucketPath)) {
+            String name;
+
+            for (PropertyIterator propIt = session.getNode(bucketPath).getProperties(); propIt.hasNext(); ) {
+                name = propIt.nextProperty().getName();
+
+                if (name.indexOf(':') == -1) {
+                    imageHandleIds.add(name);
+                }
+            }
+        }
+
+        return imageHandleIds;
+    }
+
+    /**
+     * Stores the content hash of the image set handle. The change is saved only if {@code save} is true.
+     * @param imageHandleId image set handle identifier
+     * @param hash lower case hexadecimal content hash
+     * @param save whether to save the store
+     * @throws RepositoryException repository exception
+     */
+    public synchronized void put(final String imageHandleId, final String hash, final boolean save) throws RepositoryException {
+        final Node storeNode = session.getNode(storePath);
+        final String bucketName = imageHandleId.substring(0, BUCKET_NAME_LENGTH);
+        final Node bucketNode = storeNode.hasNode(bucketName) ? storeNode.getNode(bucketName)
+                : storeNode.addNode(bucketName, "nt:unstructured");
+        bucketNode.setProperty(imageHandleId, hash);
+
+        if (save) {
+            save();
+        }
+    }
+
+    /**
+     * Removes the content hash of the image set handle. The change is saved only if {@code save} is true.
+     * @param imageHandleId image set handle identifier
+     * @param save whether to save the store
+     * @throws RepositoryException repository exception
+     */
+    public synchronized void remove(final String imageHandleId, final boolean save) throws RepositoryException {
+        final String propertyPath = getPropertyPath(imageHandleId);
+
+        if (session.propertyExists(propertyPath)) {
+            session.getProperty(propertyPath).remove();
+        }
+
+        if (save) {
+            save();
+        }
+    }
+
+    /**
+     * Saves the pending store changes, or discards them on failure.
+     * @throws RepositoryException repository exception
+     */
+    public synchronized void save() throws RepositoryException {
+        try {
+            session.save();
+        } finally {
+            session.refresh(false);
+        }
+    }
+
+    private String getPropertyPath(final String imageHandleId) {
+        return storePath + "/" + imageHandleId.substring(0, BUCKET_NAME_LENGTH) + "/" + imageHandleId;
+    }
+}
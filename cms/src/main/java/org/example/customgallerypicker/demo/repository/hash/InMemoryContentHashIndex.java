@@ -0,0 +1,112 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.repository.hash;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Thread-safe in-memory {@link ContentHashIndex} implementation.
+ * <p>
+ * Both the maps are updated under the index lock, so a reader never sees a handle identifier
+ * mapped by a hash which is not its current hash.
+ * </p>
+ */
+public class InMemoryContentHashIndex implements ContentHashIndex {
+
+    /**
+     * Image set handle identifiers mapped by content hash.
+     */
+    private final Map<String, Set<String>> handleIdsByHash = new HashMap<String, Set<String>>();
+
+    /**
+     * Content hashes mapped by image set handle identifier.
+     */
+    private final Map<String, String> hashesByHandleId = new HashMap<String, String>();
+
+    @Override
+    public synchronized Set<String> getImageHandleIds(final String hash) {
+        final Set<String> handleIds = handleIdsByHash.get(hash);
+
+        if (handleIds == null) {
+            return Collections.emptySet();
+        }
+
+        return Collections.unmodifiableSet(new HashSet<String>(handleIds));
+    }
+
+    @Override
+    public synchronized String getHash(final String imageHandleId) {
+        return hashesByHandleId.get(imageHandleId);
+    }
+
+    @Override
+    public synchronized void put(final String hash, final String imageHandleId) {
+        final String oldHash = hashesByHandleId.put(imageHandleId, hash);
+
+        if (oldHash != null && !oldHash.equals(hash)) {
+            removeHandleId(oldHash, imageHandleId);
+        }
+
+        Set<String> handleIds = handleIdsByHash.get(hash);
+
+        if (handleIds == null) {
+            handleIds = new HashSet<String>();
+            handleIdsByHash.put(hash, handleIds);
+        }
+
+        handleIds.add(imageHandleId);
+    }
+
+    @Override
+    public synchronized void remove(final String imageHandleId) {
+        final String hash = hashesByHandleId.remove(imageHandleId);
+
+        if (hash != null) {
+            removeHandleId(hash, imageHandleId);
+        }
+    }
+
+    @Override
+    public synchronized int size() {
+        return hashesByHandleId.size();
+    }
+
+    /**
+     * Puts all the {@code hashes} mapped by image set handle identifier, e.g. after loading the persisted hashes.
+     * @param hashes content hashes mapped by image set handle identifier
+     */
+    public synchronized void putAll(final Map<String, String> hashes) {
+        for (Map.Entry<String, String> entry : hashes.entrySet()) {
+            put(entry.getValue(), entry.getKey());
+        }
+    }
+
+    private void removeHandleId(final String hash, final String imageHandleId) {
+        final Set<String> handleIds = handleIdsByHash.get(hash);
+
+        if (handleIds != null) {
+            handleIds.remove(imageHandleId);
+
+            if (handleIds.isEmpty()) {
+                handleIdsByHash.remove(hash);
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.repository.importer;
+
+/**
+ * Counters and throughput of a {@link NewsArchiveImporter} run.
+ */
+public class NewsArchiveImportReport {
+
+    private final long startTime = System.currentTimeMillis();
+
+    private long endTime;
+
+    private int documents;
+
+    private int images;
+
+    private int skipped;
+
+    private int failed;
+
+    private int saves;
+
+    private long binaryBytes;
+
+    void documentImported() {
+        documents++;
+    }
+
+    void imageImported(final long length) {
+        images++;
+        binaryBytes += length;
+    }
+
+    void entrySkipped() {
+        skipped++;
+    }
+
+    void entryFailed() {
+        failed++;
+    }
+
+    void saved() {
+        saves++;
+    }
+
+    void finish() {
+        endTime = System.currentTimeMillis();
+    }
+
+    public int getDocuments() {
+        return documents;
+    }
+
+    public int getImages() {
+        return images;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public int getSaves() {
+        return saves;
+    }
+
+    public long getBinaryBytes() {
+        return binaryBytes;
+    }
+
+    public long getElapsedMillis() {
+        return (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+    }
+
+    @Override
+    public String toString() {
+        final double seconds = Math.max(getElapsedMillis(), 1L) / 1000.0;
+        return String.format("documents=%d, images=%d, skipped=%d, failed=%d, saves=%d, bytes=%d, elapsed=%.1fs, "
+                + "throughput=%.1f documents/s, %.1f images/s, %.2f MB/s",
+                documents, images, skipped, failed, saves, binaryBytes, seconds,
+                documents / seconds, images / seconds, binaryBytes / seconds / (1024 * 1024));
+    }
+}
@@ -0,0 +1,612 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.repository.importer;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.imageio.ImageIO;
+import javax.jcr.Binary;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.xml.bind.DatatypeConverter;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.example.customgallerypicker.demo.repository.util.BinaryFolderUtils;
+import org.example.customgallerypicker.demo.repository.util.ImageScalingUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streaming importer of a zip archive of news documents and their images.
+ * <p>
+ * Each directory in the archive containing a <code>document.properties</code> entry becomes
+ * a <code>customgallerypickerdemo:newsdocument</code> handle at the same path under "/content/documents/",
+ * and every image file in the same directory is uploaded as an image set into the gallery folder which
+ * <code>BinaryPathDeterminingPluginConfig</code> picks for that document, e.g.:
+ * </p>
+ * <pre>
+ * customgallerypickerdemo/news/2015/04/legacy-news/document.properties
+ * customgallerypickerdemo/news/2015/04/legacy-news/photo.jpg
+ * </pre>
+ * <p>
+ * The <code>document.properties</code> (UTF-8) may contain <code>title</code>, <code>introduction</code>,
+ * <code>content</code> (HTML), <code>date</code> (ISO 8601), <code>author</code>, <code>location</code>,
+ * <code>source</code>, <code>locale</code> and <code>image</code> (the file name of the news image in the same directory).
+ * Documents are created as unpublished variants and existing handles are skipped.
+ * Images are created as live and preview image sets with a thumbnail, like the ones uploaded in the gallery.
+ * </p>
+ * <p>
+ * The entries of a directory may come in any order. An image read before the <code>document.properties</code>
+ * of its directory is kept in its temporary file until the document is created, so its gallery folders get
+ * the translations of the document folders. The images of a directory without a <code>document.properties</code>
+ * entry are written at the end of the archive.
+ * </p>
+ * <p>
+ * The archive is read sequentially, so the memory usage stays bounded regardless of the archive size:
+ * each image is spooled to a temporary file, decoded and thumbnailed on a fixed thread pool,
+ * while only a bounded number of images are in flight. All the repository writes are done by the calling thread
+ * and saved in batches.
+ * </p>
+ */
+public class NewsArchiveImporter {
+
+    private static Logger log = LoggerFactory.getLogger(NewsArchiveImporter.class);
+
+    /**
+     * Archive entry name of the document properties in each document directory.
+     */
+    public static final String DOCUMENT_PROPERTIES_NAME = "document.properties";
+
+    private static final String NEWS_DOCUMENT_TYPE = "customgallerypickerdemo:newsdocument";
+
+    private static final String EMPTY_DOCBASE = "cafebabe-cafe-babe-cafe-babecafebabe";
+
+    private static final String [] NEWS_FOLDER_TYPES = { "new-news-folder", "new-news-document" };
+
+    private static final int THUMBNAIL_MAX_SIZE = 60;
+
+    private static final Map<String, String> IMAGE_MIME_TYPES = new HashMap<String, String>();
+
+    static {
+        IMAGE_MIME_TYPES.put("jpg", "image/jpeg");
+        IMAGE_MIME_TYPES.put("jpeg", "image/jpeg");
+        IMAGE_MIME_TYPES.put("png", "image/png");
+        IMAGE_MIME_TYPES.put("gif", "image/gif");
+    }
+
+    private final Session session;
+
+    private int batchSize = 100;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private String defaultLocale = "en";
+
+    /**
+     * Variant node paths having an image link to an image not imported yet, mapped by the image handle path.
+     */
+    private final Map<String, String> pendingImageLinks = new HashMap<String, String>();
+
+    /**
+     * Processed images waiting for the document of their directory, mapped by the directory path.
+     */
+    private final Map<String, List<ProcessedImage>> deferredImages = new LinkedHashMap<String, List<ProcessedImage>>();
+
+    private NewsArchiveImportReport report;
+
+    private int unsavedChanges;
+
+    /**
+     * Constructor.
+     * @param session JCR session to write with, which is used by the calling thread only
+     */
+    public NewsArchiveImporter(final Session session) {
+        this.session = session;
+    }
+
+    /**
+     * Sets the number of imported items (documents or images) saved at once.
+     * @param batchSize batch size
+     */
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Sets the number of image processing threads.
+     * @param threads number of threads
+     */
+    public void setThreads(final int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Sets the locale of the documents and folders when not specified in the document properties.
+     * @param defaultLocale default locale
+     */
+    public void setDefaultLocale(final String defaultLocale) {
+        this.defaultLocale = defaultLocale;
+    }
+
+    /**
+     * Imports the news documents and images from the zip archive {@code input}.
+     * <p>
+     * On a repository failure, the unsaved changes of the current batch are discarded and the exception is rethrown,
+     * while the batches saved before remain.
+     * </p>
+     * @param input zip archive input stream, which is not closed by this method
+     * @return import report
+     * @throws IOException IO exception
+     * @throws RepositoryException repository exception
+     */
+    public NewsArchiveImportReport importArchive(final InputStream input) throws IOException, RepositoryException {
+        report = new NewsArchiveImportReport();
+        pendingImageLinks.clear();
+        deferredImages.clear();
+        unsavedChanges = 0;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final Deque<ImageProcessingTask> inFlight = new ArrayDeque<ImageProcessingTask>();
+        final int maxInFlight = threads * 2;
+
+        try {
+            final ZipInputStream zin = new ZipInputStream(input);
+            ZipEntry entry;
+
+            while ((entry = zin.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+
+                final String entryName = StringUtils.strip(entry.getName().replace('\\', '/'), "/");
+                final String dirPath = StringUtils.substringBeforeLast(entryName, "/");
+                final String fileName = StringUtils.substringAfterLast(entryName, "/");
+
+                if (StringUtils.isEmpty(dirPath) || StringUtils.isEmpty(fileName) || entryName.contains("..")) {
+                    log.warn("Skipping archive entry outside a document directory: {}", entryName);
+                    report.entrySkipped();
+                } else if (DOCUMENT_PROPERTIES_NAME.equals(fileName)) {
+                    final Properties props = new Properties();
+                    props.load(new InputStreamReader(zin, "UTF-8"));
+                    importDocument(dirPath, props);
+                    writeDeferredImages(dirPath);
+                } else if (IMAGE_MIME_TYPES.containsKey(StringUtils.lowerCase(StringUtils.substringAfterLast(fileName, ".")))) {
+                    while (inFlight.size() >= maxInFlight) {
+                        writeImage(inFlight.removeFirst());
+                    }
+
+                    final ImageProcessingTask task = new ImageProcessingTask(dirPath, fileName, spool(zin));
+                    task.future = executor.submit(task);
+                    inFlight.addLast(task);
+                } else {
+                    log.warn("Skipping unsupported archive entry: {}", entryName);
+                    report.entrySkipped();
+                }
+            }
+
+            while (!inFlight.isEmpty()) {
+                writeImage(inFlight.removeFirst());
+            }
+
+            if (!deferredImages.isEmpty()) {
+                log.warn("No document found in the archive for the images in {} directories: {}", deferredImages.size(),
+                        deferredImages.keySet());
+
+                for (String dirPath : new ArrayList<String>(deferredImages.keySet())) {
+                    writeDeferredImages(dirPath);
+                }
+            }
+
+            saveIfNeeded(true);
+
+            if (!pendingImageLinks.isEmpty()) {
+                log.warn("News image not found in the archive for {} documents: {}", pendingImageLinks.size(), pendingImageLinks.values());
+            }
+        } catch (RepositoryException e) {
+            session.refresh(false);
+            throw e;
+        } finally {
+            executor.shutdownNow();
+
+            for (ImageProcessingTask task : inFlight) {
+                task.future.cancel(true);
+                deleteTempFile(task.image);
+            }
+
+            for (List<ProcessedImage> images : deferredImages.values()) {
+                for (ProcessedImage image : images) {
+                    deleteTempFile(image);
+                }
+            }
+
+            deferredImages.clear();
+
+            report.finish();
+            log.info("News archive import finished: {}", report);
+        }
+
+        return report;
+    }
+
+    private void importDocument(final String dirPath, final Properties props) throws RepositoryException {
+        final String handlePath = BinaryFolderUtils.DOCUMENTS_ROOT_PATH + "/" + dirPath;
+
+        if (session.nodeExists(handlePath)) {
+            log.info("Skipping the existing document: {}", handlePath);
+            report.entrySkipped();
+            return;
+        }
+
+        final String locale = props.getProperty("locale", defaultLocale);
+        final String name = StringUtils.substringAfterLast("/" + dirPath, "/");
+        final String title = StringUtils.defaultIfBlank(props.getProperty("title"), name);
+        final Node folderNode = createDocumentFoldersIfNotExisting(StringUtils.substringBeforeLast("/" + dirPath, "/"), locale);
+
+        final Node handleNode = folderNode.addNode(name, "hippo:handle");
+        handleNode.addMixin("mix:referenceable");
+        handleNode.addMixin("hippo:translated");
+        final Node translationNode = handleNode.addNode("hippo:translation", "hippo:translation");
+        translationNode.setProperty("hippo:language", locale);
+        translationNode.setProperty("hippo:message", title);
+
+        final Calendar now = Calendar.getInstance();
+        final String userId = session.getUserID();
+        final Node variantNode = handleNode.addNode(name, NEWS_DOCUMENT_TYPE);
+        variantNode.addMixin("mix:referenceable");
+        variantNode.setProperty("hippostd:state", "unpublished");
+        variantNode.setProperty("hippostd:stateSummary", "new");
+        variantNode.setProperty("hippo:availability", new String[] { "preview" });
+        variantNode.setProperty("hippostdpubwf:createdBy", userId);
+        variantNode.setProperty("hippostdpubwf:creationDate", now);
+        variantNode.setProperty("hippostdpubwf:lastModifiedBy", userId);
+        variantNode.setProperty("hippostdpubwf:lastModificationDate", now);
+        variantNode.setProperty("hippotranslation:id", UUID.randomUUID().toString());
+        variantNode.setProperty("hippotranslation:locale", locale);
+        variantNode.setProperty("customgallerypickerdemo:documenttype", "news");
+        variantNode.setProperty("customgallerypickerdemo:title", title);
+
+        for (String propName : new String [] { "introduction", "author", "location", "source" }) {
+            variantNode.setProperty("customgallerypickerdemo:" + propName, props.getProperty(propName, ""));
+        }
+
+        variantNode.setProperty("customgallerypickerdemo:date", parseDate(props.getProperty("date"), now));
+
+        final Node contentNode = variantNode.addNode("customgallerypickerdemo:content", "hippostd:html");
+        contentNode.setProperty("hippostd:content", props.getProperty("content", "<html><body></body></html>"));
+
+        final Node imageLinkNode = variantNode.addNode("customgallerypickerdemo:image", "hippogallerypicker:imagelink");
+        imageLinkNode.setProperty("hippo:docbase", EMPTY_DOCBASE);
+        imageLinkNode.setProperty("hippo:facets", new String[0]);
+        imageLinkNode.setProperty("hippo:modes", new String[0]);
+        imageLinkNode.setProperty("hippo:values", new String[0]);
+
+        final String imageFileName = props.getProperty("image");
+
+        if (StringUtils.isNotBlank(imageFileName)) {
+            final String imageHandlePath = BinaryFolderUtils.GALLERY_ROOT_PATH + "/" + dirPath + "/" + imageFileName;
+
+            if (session.nodeExists(imageHandlePath)) {
+                imageLinkNode.setProperty("hippo:docbase", session.getNode(imageHandlePath).getIdentifier());
+            } else {
+                pendingImageLinks.put(imageHandlePath, imageLinkNode.getPath());
+            }
+        }
+
+        report.documentImported();
+        saveIfNeeded(false);
+    }
+
+    /**
+     * Waits for the image processing result and writes the image set into the binary folder of its document,
+     * or defers it until the document is imported if the document doesn't exist yet.
+     * @param task image processing task
+     * @throws IOException IO exception
+     * @throws RepositoryException repository exception
+     */
+    private void writeImage(final ImageProcessingTask task) throws IOException, RepositoryException {
+        final ProcessedImage image = task.image;
+        boolean deferred = false;
+
+        try {
+            try {
+                task.future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the image processing.", e);
+            } catch (ExecutionException e) {
+                log.error("Failed to process the image: " + image.dirPath + "/" + image.fileName, e.getCause());
+                report.entryFailed();
+                return;
+            }
+
+            if (image.width <= 0) {
+                log.warn("Skipping the image which cannot be decoded: {}/{}", image.dirPath, image.fileName);
+                report.entryFailed();
+                return;
+            }
+
+            if (!session.nodeExists(BinaryFolderUtils.DOCUMENTS_ROOT_PATH + "/" + image.dirPath)) {
+                List<ProcessedImage> images = deferredImages.get(image.dirPath);
+
+                if (images == null) {
+                    images = new ArrayList<ProcessedImage>();
+                    deferredImages.put(image.dirPath, images);
+                }
+
+                images.add(image);
+                deferred = true;
+                return;
+            }
+
+            addImageSet(image);
+        } finally {
+            if (!deferred) {
+                deleteTempFile(image);
+            }
+        }
+    }
+
+    /**
+     * Writes the images deferred until the document of the directory {@code dirPath} was imported.
+     * @param dirPath directory path in the archive
+     * @throws IOException IO exception
+     * @throws RepositoryException repository exception
+     */
+    private void writeDeferredImages(final String dirPath) throws IOException, RepositoryException {
+        final List<ProcessedImage> images = deferredImages.get(dirPath);
+
+        if (images == null) {
+            return;
+        }
+
+        // the images left on a failure are deleted with the other deferred images at the end of the import
+        while (!images.isEmpty()) {
+            final ProcessedImage image = images.remove(0);
+
+            try {
+                addImageSet(image);
+            } finally {
+                deleteTempFile(image);
+            }
+        }
+
+        deferredImages.remove(dirPath);
+    }
+
+    /**
+     * Writes a processed image as an image set into the binary folder of its document.
+     * @param image processed image
+     * @throws IOException IO exception
+     * @throws RepositoryException repository exception
+     */
+    private void addImageSet(final ProcessedImage image) throws IOException, RepositoryException {
+        final Node galleryNode = BinaryFolderUtils.createBinaryFoldersIfNotExisting(session, image.dirPath);
+
+        if (galleryNode.hasNode(image.fileName)) {
+            log.info("Skipping the existing image: {}/{}", galleryNode.getPath(), image.fileName);
+            report.entrySkipped();
+            return;
+        }
+
+        final Node handleNode = galleryNode.addNode(image.fileName, "hippo:handle");
+        handleNode.addMixin("mix:referenceable");
+        final Node imageSetNode = handleNode.addNode(image.fileName, "hippogallery:imageset");
+        imageSetNode.addMixin("mix:referenceable");
+        imageSetNode.setProperty("hippo:availability", new String[] { "live", "preview" });
+        imageSetNode.setProperty("hippogallery:filename", image.fileName);
+
+        final InputStream originalInput = new FileInputStream(image.tempFile);
+
+        try {
+            addImageNode(imageSetNode, "hippogallery:original", originalInput, image.mimeType, image.width, image.height);
+        } finally {
+            IOUtils.closeQuietly(originalInput);
+        }
+
+        addImageNode(imageSetNode, "hippogallery:thumbnail", new ByteArrayInputStream(image.thumbnail),
+                image.mimeType, image.thumbnailWidth, image.thumbnailHeight);
+
+        final String imageLinkPath = pendingImageLinks.remove(handleNode.getPath());
+
+        if (imageLinkPath != null) {
+            session.getNode(imageLinkPath).setProperty("hippo:docbase", handleNode.getIdentifier());
+        }
+
+        report.imageImported(image.tempFile.length());
+        saveIfNeeded(false);
+    }
+
+    private void addImageNode(final Node imageSetNode, final String name, final InputStream input, final String mimeType,
+            final int width, final int height) throws RepositoryException {
+        final Node imageNode = imageSetNode.addNode(name, "hippogallery:image");
+        final Binary binary = session.getValueFactory().createBinary(input);
+
+        try {
+            imageNode.setProperty("jcr:data", binary);
+        } finally {
+            binary.dispose();
+        }
+
+        imageNode.setProperty("jcr:mimeType", mimeType);
+        imageNode.setProperty("jcr:lastModified", Calendar.getInstance());
+        imageNode.setProperty("hippogallery:width", (long) width);
+        imageNode.setProperty("hippogallery:height", (long) height);
+    }
+
+    /**
+     * Creates the document folder nodes for the path relative to the documents root folder if not existing,
+     * and returns the deepest folder node.
+     * @param folderRelPath folder path relative to the documents root folder
+     * @param locale locale of the new folders
+     * @return the deepest folder node
+     * @throws RepositoryException repository exception
+     */
+    private Node createDocumentFoldersIfNotExisting(final String folderRelPath, final String locale) throws RepositoryException {
+        Node folderNode = session.getNode(BinaryFolderUtils.DOCUMENTS_ROOT_PATH);
+
+        for (String folderName : StringUtils.split(folderRelPath, "/")) {
+            if (folderNode.hasNode(folderName)) {
+                folderNode = folderNode.getNode(folderName);
+            } else {
+                folderNode = folderNode.addNode(folderName, "hippostd:folder");
+                folderNode.addMixin("mix:referenceable");
+                folderNode.addMixin("hippotranslation:translated");
+                folderNode.setProperty("hippostd:foldertype", NEWS_FOLDER_TYPES);
+                folderNode.setProperty("hippotranslation:id", UUID.randomUUID().toString());
+                folderNode.setProperty("hippotranslation:locale", locale);
+            }
+        }
+
+        return folderNode;
+    }
+
+    private void saveIfNeeded(final boolean force) throws RepositoryException {
+        if (force ? unsavedChanges > 0 : ++unsavedChanges >= batchSize) {
+            session.save();
+            unsavedChanges = 0;
+            report.saved();
+            log.debug("News archive import progress: {}", report);
+        }
+    }
+
+    private Calendar parseDate(final String value, final Calendar defaultValue) {
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+
+        try {
+            return DatatypeConverter.parseDateTime(value.trim());
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid date in the document properties: {}", value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Copies the current archive entry into a temporary file, without closing the zip input stream.
+     * @param zin zip input stream positioned at an image entry
+     * @return temporary file
+     * @throws IOException IO exception
+     */
+    private File spool(final ZipInputStream zin) throws IOException {
+        final File tempFile = File.createTempFile("newsimport-", ".bin");
+        final OutputStream out = new FileOutputStream(tempFile);
+
+        try {
+            IOUtils.copyLarge(zin, out);
+        } catch (IOException e) {
+            IOUtils.closeQuietly(out);
+            tempFile.delete();
+            throw e;
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+
+        return tempFile;
+    }
+
+    private static void deleteTempFile(final ProcessedImage image) {
+        if (image != null && image.tempFile.exists() && !image.tempFile.delete()) {
+            log.warn("Cannot delete the temporary file: {}", image.tempFile);
+        }
+    }
+
+    /**
+     * Image decoded and thumbnailed by a {@link ImageProcessingTask}.
+     */
+    private static class ProcessedImage {
+
+        private final String dirPath;
+        private final String fileName;
+        private final File tempFile;
+        private final String mimeType;
+        private int width;
+        private int height;
+        private byte [] thumbnail;
+        private int thumbnailWidth;
+        private int thumbnailHeight;
+
+        private ProcessedImage(final String dirPath, final String fileName, final File tempFile, final String mimeType) {
+            this.dirPath = dirPath;
+            this.fileName = fileName;
+            this.tempFile = tempFile;
+            this.mimeType = mimeType;
+        }
+    }
+
+    /**
+     * Reads the dimensions of a spooled image and creates its thumbnail, without touching the repository.
+     */
+    private static class ImageProcessingTask implements Callable<ProcessedImage> {
+
+        private final ProcessedImage image;
+
+        private Future<ProcessedImage> future;
+
+        private ImageProcessingTask(final String dirPath, final String fileName, final File tempFile) {
+            final String extension = StringUtils.lowerCase(StringUtils.substringAfterLast(fileName, "."), Locale.ENGLISH);
+            image = new ProcessedImage(dirPath, fileName, tempFile, IMAGE_MIME_TYPES.get(extension));
+        }
+
+        @Override
+        public ProcessedImage call() throws Exception {
+            final BufferedImage source = ImageIO.read(image.tempFile);
+
+            if (source == null) {
+                return image;
+            }
+
+            image.width = source.getWidth();
+            image.height = source.getHeight();
+
+            final BufferedImage thumbnail = ImageScalingUtils.scale(source, THUMBNAIL_MAX_SIZE, THUMBNAIL_MAX_SIZE,
+                    ImageScalingUtils.isOpaque(image.mimeType));
+            image.thumbnailWidth = thumbnail.getWidth();
+            image.thumbnailHeight = thumbnail.getHeight();
+            image.thumbnail = ImageScalingUtils.encode(thumbnail, image.mimeType);
+
+            return image;
+        }
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.repository.module;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+
+import org.apache.commons.lang.StringUtils;
+import org.example.customgallerypicker.demo.repository.cluster.RepositoryLease;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Durable journal of the pending binary folder synchronization operations of {@link BinaryPathUpdaterModule},
+ * stored as compact {@code nt:unstructured} entry nodes under the journal node in the module configuration.
+ * <p>
+ * An entry is saved before the operation runs and removed once it is done, so any operation interrupted
+ * by a failure, a shutdown or a crash remains in the journal to be replayed.
+ * The journal uses its own session, so the operation handlers may discard their own changes
+ * without affecting the journal.
+ * </p>
+ * <p>
+ * As the journal node is shared by all the cluster nodes, the entry names are unique across the cluster
+ * (the append time followed by a random UUID) and each entry records the cluster node which appended it.
+ * </p>
+ */
+public class BinaryPathSyncJournal {
+
+    private static Logger log = LoggerFactory.getLogger(BinaryPathSyncJournal.class);
+
+    private static final String ACTION_PROP = "action";
+    private static final String SUBJECT_ID_PROP = "subjectId";
+    private static final String SUBJECT_PATH_PROP = "subjectPath";
+    private static final String ARGUMENTS_PROP = "arguments";
+    private static final String CREATED_PROP = "created";
+    private static final String ATTEMPTS_PROP = "attempts";
+    private static final String OWNER_PROP = "owner";
+
+    private final Session session;
+
+    private final String journalPath;
+
+    private final String ownerId;
+
+    /**
+     * Constructor appending the entries as {@link RepositoryLease#getDefaultOwnerId()}.
+     * @param session JCR session dedicated to the journal
+     * @param journalPath the journal node path, which is created if not existing
+     * @throws RepositoryException repository exception
+     */
+    public BinaryPathSyncJournal(final Session session, final String journalPath) throws RepositoryException {
+        this(session, journalPath, RepositoryLease.getDefaultOwnerId());
+    }
+
+    /**
+     * Constructor.
+     * @param session JCR session dedicated to the journal
+     * @param journalPath the journal node path, which is created if not existing
+     * @param ownerId identifier of the cluster node appending the entries
+     * @throws RepositoryException repository exception
+     */
+    public BinaryPathSyncJournal(final Session session, final String journalPath, final String ownerId) throws RepositoryException {
+        this.session = session;
+        this.journalPath = journalPath;
+        this.ownerId = ownerId;
+
+        if (!session.nodeExists(journalPath)) {
+            final int offset = journalPath.lastIndexOf('/');
+            session.getNode(journalPath.substring(0, offset)).addNode(journalPath.substring(offset + 1), "nt:unstructured");
+            session.save();
+        }
+    }
+
+    /**
+     * Appends and saves a pending operation entry.
+     * @param action workflow action name
+     * @param subjectId workflow subject node identifier
+     * @param subjectPath workflow subject node path at the time of the event
+     * @param arguments workflow arguments, which may be null
+     * @return the entry node name
+     * @throws RepositoryException repository exception
+     */
+    public synchronized String append(final String action, final String subjectId, final String subjectPath,
+            final List<String> arguments) throws RepositoryException {
+        final String name = Long.toString(System.currentTimeMillis(), 36) + "-" + UUID.randomUUID();
+
+        try {
+            final Node entryNode = session.getNode(journalPath).addNode(name, "nt:unstructured");
+            entryNode.setProperty(ACTION_PROP, action);
+            entryNode.setProperty(SUBJECT_ID_PROP, subjectId);
+            entryNode.setProperty(SUBJECT_PATH_PROP, subjectPath);
+            entryNode.setProperty(CREATED_PROP, Calendar.getInstance());
+            entryNode.setProperty(ATTEMPTS_PROP, 0L);
+            entryNode.setProperty(OWNER_PROP, ownerId);
+
+            if (arguments != null) {
+                entryNode.setProperty(ARGUMENTS_PROP, arguments.toArray(new String[arguments.size()]));
+            }
+
+            session.save();
+        } finally {
+            session.refresh(false);
+        }
+
+        return name;
+    }
+
+    /**
+     * Removes the entry of a completed (or abandoned) operation. The change is saved only if {@code save} is true.
+     * @param name entry node name
+     * @param save whether to save the journal
+     * @throws RepositoryException repository exception
+     */
+    public synchronized void remove(final String name, final boolean save) throws RepositoryException {
+        final Node journalNode = session.getNode(journalPath);
+
+        if (journalNode.hasNode(name)) {
+            journalNode.getNode(name).remove();
+        }
+
+        if (save) {
+            save();
+        }
+    }
+
+    /**
+     * Increments the attempt count of the entry of a failed operation. The change is saved only if {@code save} is true.
+     * @param name entry node name
+     * @param save whether to save the journal
+     * @throws RepositoryException repository exception
+     */
+    public synchronized void markFailed(final String name, final boolean save) throws RepositoryException {
+        final Node journalNode = session.getNode(journalPath);
+
+        if (journalNode.hasNode(name)) {
+            final Node entryNode = journalNode.getNode(name);
+            entryNode.setProperty(ATTEMPTS_PROP, entryNode.getProperty(ATTEMPTS_PROP).getLong() + 1L);
+        }
+
+        if (save) {
+            save();
+        }
+    }
+
+    /**
+     * Saves the pending journal changes, or discards them on failure.
+     * @throws RepositoryException repository exception
+     */
+    public synchronized void save() throws RepositoryException {
+        try {
+            session.save();
+        } finally {
+            session.refresh(false);
+        }
+    }
+
+    /**
+     * Returns the names of all the journal entries in the order of appending.
+     * @return the names of all the journal entries
+     * @throws RepositoryException repository exception
+     */
+    public synchronized List<String> getEntryNames() throws RepositoryException {
+        final List<String> names = new ArrayList<String>();
+
+        for (NodeIterator nodeIt = session.getNode(journalPath).getNodes(); nodeIt.hasNext(); ) {
+            names.add(nodeIt.nextNode().getName());
+        }
+
+        return names;
+    }
+
+    /**
+     * Reads the journal entry.
+     * @param name entry node name
+     * @return the journal entry, or null if not found
+     * @throws RepositoryException repository exception
+     */
+    public synchronized Entry getEntry(final String name) throws RepositoryException {
+        final Node journalNode = session.getNode(journalPath);
+
+        if (!journalNode.hasNode(name)) {
+            return null;
+        }
+
+        final Node entryNode = journalNode.getNode(name);
+        final List<String> arguments = new ArrayList<String>();
+
+        if (entryNode.hasProperty(ARGUMENTS_PROP)) {
+            for (Value value : entryNode.getProperty(ARGUMENTS_PROP).getValues()) {
+                arguments.add(value.getString());
+            }
+        }
+
+        return new Entry(name, entryNode.getProperty(ACTION_PROP).getString(),
+                entryNode.getProperty(SUBJECT_ID_PROP).getString(), entryNode.getProperty(SUBJECT_PATH_PROP).getString(),
+                arguments, entryNode.getProperty(CREATED_PROP).getDate().getTimeInMillis(),
+                (int) entryNode.getProperty(ATTEMPTS_PROP).getLong(),
+                entryNode.hasProperty(OWNER_PROP) ? entryNode.getProperty(OWNER_PROP).getString() : null);
+    }
+
+    /**
+     * Replays the entries appended before {@code createdBefore} in batches.
+     * @param createdBefore only the entries appended before this time in epoch milliseconds are replayed
+     * @param maxAttempts maximum number of attempts of an entry
+     * @param batchSize number of entries per journal save
+     * @param replayer replayer of the operations
+     * @return the replay result
+     * @throws RepositoryException repository exception
+     * @see #replay(long, String, int, int, Replayer)
+     */
+    public ReplayResult replay(final long createdBefore, final int maxAttempts, final int batchSize,
+            final Replayer replayer) throws RepositoryException {
+        return replay(createdBefore, null, maxAttempts, batchSize, replayer);
+    }
+
+    /**
+     * Replays the entries appended before {@code createdBefore}, and the entries appended by {@code ownerId}
+     * at any time, in batches, saving the journal once per batch:
+     * an entry is removed if {@code replayer} succeeds, its attempt count is incremented if it fails,
+     * and it is dropped without replaying once it has failed {@code maxAttempts} times.
+     * The replay stops before the next batch as soon as {@code replayer} is not active any more.
+     * <p>
+     * Each batch holds the journal lock until it is saved, so the appends and the removals of the live operations
+     * run between the batches and can't save or discard the pending changes of a batch.
+     * </p>
+     * @param createdBefore the entries appended before this time in epoch milliseconds are replayed
+     * @param ownerId identifier of the cluster node of which all the entries are replayed, or null
+     * @param maxAttempts maximum number of attempts of an entry
+     * @param batchSize number of entries per journal save
+     * @param replayer replayer of the operations
+     * @return the replay result
+     * @throws RepositoryException repository exception
+     */
+    public ReplayResult replay(final long createdBefore, final String ownerId, final int maxAttempts, final int batchSize,
+            final Replayer replayer) throws RepositoryException {
+        final ReplayResult result = new ReplayResult();
+        final List<String> entryNames = getEntryNames();
+
+        for (int i = 0; i < entryNames.size() && replayer.isActive(); i += batchSize) {
+            synchronized (this) {
+                for (String entryName : entryNames.subList(i, Math.min(i + batchSize, entryNames.size()))) {
+                    final Entry entry = getEntry(entryName);
+
+                    if (entry == null || (entry.getCreated() > createdBefore
+                            && (ownerId == null || !StringUtils.equals(ownerId, entry.getOwnerId())))) {
+                        continue;
+                    }
+
+                    if (entry.getAttempts() >= maxAttempts) {
+                        log.error("Dropping binary folder synchronization operation after {} attempts: {}", entry.getAttempts(), entry);
+                        remove(entryName, false);
+                        result.dropped++;
+                    } else if (replayer.replay(entry)) {
+                        remove(entryName, false);
+                        result.done++;
+                    } else {
+                        markFailed(entryName, false);
+                        result.failed++;
+                    }
+                }
+
+                save();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Replayer of the journaled operations.
+     */
+    public interface Replayer {
+
+        /**
+         * Returns true if the replay may go on, e.g. as long as the replaying cluster node holds the lease.
+         * @return true if the replay may go on
+         */
+        boolean isActive();
+
+        /**
+         * Runs the journaled operation again.
+         * @param entry journal entry
+         * @return true if the operation is done or there's nothing to do, false if it failed
+         */
+        boolean replay(Entry entry);
+
+    }
+
+    /**
+     * Counters of a journal replay.
+     */
+    public static class ReplayResult {
+
+        private int done;
+        private int failed;
+        private int dropped;
+
+        public int getDone() {
+            return done;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public int getDropped() {
+            return dropped;
+        }
+
+        public boolean isEmpty() {
+            return done + failed + dropped == 0;
+        }
+    }
+
+    /**
+     * Pending operation journal entry.
+     */
+    public static class Entry {
+
+        private final String name;
+        private final String action;
+        private final String subjectId;
+        private final String subjectPath;
+        private final List<String> arguments;
+        private final long created;
+        private final int attempts;
+        private final String ownerId;
+
+        private Entry(final String name, final String action, final String subjectId, final String subjectPath,
+                final List<String> arguments, final long created, final int attempts, final String ownerId) {
+            this.name = name;
+            this.action = action;
+            this.subjectId = subjectId;
+            this.subjectPath = subjectPath;
+            this.arguments = Collections.unmodifiableList(arguments);
+            this.created = created;
+            this.attempts = attempts;
+            this.ownerId = ownerId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getAction() {
+            return action;
+        }
+
+        public String getSubjectId() {
+            return subjectId;
+        }
+
+        public String getSubjectPath() {
+            return subjectPath;
+        }
+
+        public List<String> getArguments() {
+            return arguments;
+        }
+
+        /**
+         * Returns the time the entry was appended, in epoch milliseconds.
+         * @return the time the entry was appended
+         */
+        public long getCreated() {
+            return created;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * Returns the identifier of the cluster node which appended the entry.
+         * @return the identifier of the cluster node which appended the entry, or null if not recorded
+         */
+        public String getOwnerId() {
+            return ownerId;
+        }
+
+        @Override
+        public String toString() {
+            return action + " " + subjectPath + " (" + subjectId + ") " + Arrays.toString(arguments.toArray());
+        }
+    }
+}
@@ -20,23 +20,32 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.jcr.ItemNotFoundException;
 import javax.jcr.Node;
 import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
 import javax.jcr.query.Query;
 import javax.jcr.query.QueryResult;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
+import org.example.customgallerypicker.demo.repository.cluster.RepositoryLease;
+import org.example.customgallerypicker.demo.repository.reorganize.BulkReorganizer;
+import org.example.customgallerypicker.demo.repository.trace.OperationTrace;
+import org.example.customgallerypicker.demo.repository.util.BinaryFolderUtils;
 import org.hippoecm.repository.util.RepoUtils;
 import org.onehippo.cms7.event.HippoEvent;
 import org.onehippo.cms7.services.HippoServiceRegistry;
 import org.onehippo.cms7.services.eventbus.HippoEventBus;
 import org.onehippo.cms7.services.eventbus.Subscribe;
 import org.onehippo.repository.events.HippoWorkflowEvent;
+import org.onehippo.repository.modules.ConfigurableDaemonModule;
 import org.onehippo.repository.modules.DaemonModule;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -59,20 +68,44 @@ import org.slf4j.LoggerFactory;
  * from "/content/gallery/myhippoproject/announcement2/getting-started-with-hippo/"
  * to "/content/gallery/myhippoproject/announcement2/getting-started-with-hippo-2/" accordingly.
  * </p>
+ * <p>
+ * The image handle paths under a moved binary folder are rewritten in all the image manifests
+ * by {@link ImageManifestUpdaterModule#relocateImageManifests(Session, String, String)} in the same save as the move,
+ * so the site can use the stored paths as they are.
+ * </p>
+ * <p>
+ * Every synchronization operation is written to the {@link BinaryPathSyncJournal} under the module configuration node
+ * ("journal" child node) before it runs and removed once it is done. The operations left
+ * in the journal by a failure, a shutdown or a crash are replayed in batches of <code>replay.batch.size</code>
+ * (default 100), and an operation failing <code>max.attempts</code> times (default 3) is dropped with an error.
+ * </p>
+ * <p>
+ * As the journal is shared by all the cluster nodes, it is replayed only by the cluster node holding
+ * the {@link RepositoryLease} ("lease" child node of the module configuration node), which is renewed
+ * every third of <code>lease.ttl.seconds</code> (default 60). The lease holder replays on every renewal
+ * the entries older than the lease TTL, so the operations left by a cluster node which died are taken over
+ * without interfering with the operations still running on the live cluster nodes.
+ * On initialization, before listening to the workflow events, the cluster node tries to acquire the lease once
+ * and, if acquired, replays also all its own entries left by its previous run, whatever their age.
+ * </p>
+ * <p>
+ * Every synchronization operation is traced by {@link OperationTrace} ("sync.&lt;action&gt;" operation), so a slow one
+ * is logged with the time spent in the query, <code>getNodeByIdentifier</code>, move, save and translation copy phases.
+ * </p>
  */
-public class BinaryPathUpdaterModule implements DaemonModule {
+public class BinaryPathUpdaterModule implements ConfigurableDaemonModule {
 
     private static Logger log = LoggerFactory.getLogger(BinaryPathUpdaterModule.class);
 
     /**
-     * Default property value of {@code hippostd:foldertype} of {@code hippogallery:stdImageGallery}.
+     * Journal node name under the module configuration node.
      */
-    private static final String [] GALLERY_NODE_FOLDER_TYPES = { "new-image-folder" };
+    private static final String JOURNAL_NODE_NAME = "journal";
 
     /**
-     * Default property value of {@code hippostd:gallerytype} of {@code hippogallery:stdImageGallery}.
+     * Lease node name under the module configuration node.
      */
-    private static final String [] GALLERY_NODE_GALLERY_TYPES = { "hippogallery:imageset" };
+    private static final String LEASE_NODE_NAME = "lease";
 
     /**
      * System JCR Session which is given by the Hippo Repository Engine on initialization.
@@ -84,10 +117,62 @@ public class BinaryPathUpdaterModule implements DaemonModule {
      */
     private HippoDocumentRenameEventListener documentOrFolderRenameEventListener;
 
+    /**
+     * Module configuration node path, under which the journal is stored.
+     */
+    private String moduleConfigPath;
+
+    private int replayBatchSize = 100;
+
+    private int maxAttempts = 3;
+
+    private long leaseTtlMillis = TimeUnit.SECONDS.toMillis(60);
+
+    /**
+     * JCR session dedicated to the journal.
+     */
+    private Session journalSession;
+
+    /**
+     * Durable journal of the pending synchronization operations.
+     */
+    private BinaryPathSyncJournal journal;
+
+    /**
+     * JCR session dedicated to the lease.
+     */
+    private Session leaseSession;
+
+    /**
+     * Cluster wide lease for the journal replay.
+     */
+    private RepositoryLease lease;
+
+    /**
+     * Scheduler of the lease renewals and the journal replays.
+     */
+    private ScheduledExecutorService leaseScheduler;
+
+    @Override
+    public void configure(Node moduleConfig) throws RepositoryException {
+        moduleConfigPath = moduleConfig.getPath();
+
+        if (moduleConfig.hasProperty("replay.batch.size")) {
+            replayBatchSize = (int) Math.max(1L, moduleConfig.getProperty("replay.batch.size").getLong());
+        }
+        if (moduleConfig.hasProperty("max.attempts")) {
+            maxAttempts = (int) Math.max(1L, moduleConfig.getProperty("max.attempts").getLong());
+        }
+        if (moduleConfig.hasProperty("lease.ttl.seconds")) {
+            leaseTtlMillis = TimeUnit.SECONDS.toMillis(Math.max(3L, moduleConfig.getProperty("lease.ttl.seconds").getLong()));
+        }
+    }
+
     /**
      * {@inheritDoc}
      * <p>
-     * This method stores the given {@code session} to use it when making changes on repository later
+     * This method stores the given {@code session} to use it when making changes on repository later,
+     * replays the journal if it acquires the lease, schedules the lease renewals and the journal replays
      * and registers the document or folder renaming event listener to {@link HippoEventBus}.
      * </p>
      */
@@ -95,6 +180,31 @@ public class BinaryPathUpdaterModule implements DaemonModule {
     public void initialize(Session session) throws RepositoryException {
         this.session = session;
 
+        if (moduleConfigPath != null) {
+            journalSession = session.impersonate(new SimpleCredentials(session.getUserID(), new char[0]));
+            final String ownerId = RepositoryLease.getDefaultOwnerId();
+            journal = new BinaryPathSyncJournal(journalSession, moduleConfigPath + "/" + JOURNAL_NODE_NAME, ownerId);
+
+            leaseSession = session.impersonate(new SimpleCredentials(session.getUserID(), new char[0]));
+            lease = new RepositoryLease(leaseSession, moduleConfigPath + "/" + LEASE_NODE_NAME, ownerId, leaseTtlMillis);
+
+            // none of the own entries can be running before the listener is registered
+            if (lease.tryAcquire()) {
+                log.info("Cluster node '{}' acquired the binary folder synchronization lease.", ownerId);
+                replayJournal(ownerId);
+            }
+
+            leaseScheduler = Executors.newSingleThreadScheduledExecutor();
+            leaseScheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    renewLeaseAndReplayJournal();
+                }
+            }, leaseTtlMillis / 3, leaseTtlMillis / 3, TimeUnit.MILLISECONDS);
+        } else {
+            log.warn("No module configuration found. The synchronization operations are not journaled.");
+        }
+
         documentOrFolderRenameEventListener = new HippoDocumentRenameEventListener();
         HippoServiceRegistry.registerService(documentOrFolderRenameEventListener, HippoEventBus.class);
     }
@@ -110,6 +220,116 @@ public class BinaryPathUpdaterModule implements DaemonModule {
         if (documentOrFolderRenameEventListener != null) {
             HippoServiceRegistry.unregisterService(documentOrFolderRenameEventListener, HippoEventBus.class);
         }
+
+        if (leaseScheduler != null) {
+            leaseScheduler.shutdownNow();
+
+            try {
+                leaseScheduler.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        if (lease != null) {
+            lease.release();
+        }
+
+        if (leaseSession != null) {
+            leaseSession.logout();
+        }
+
+        if (journalSession != null) {
+            journalSession.logout();
+        }
+    }
+
+    /**
+     * Acquires or renews the lease, and replays the journal if this cluster node holds the lease.
+     */
+    private void renewLeaseAndReplayJournal() {
+        final boolean wasHeld = lease.isHeld();
+        final boolean held = lease.tryAcquire();
+
+        if (held && !wasHeld) {
+            log.info("Cluster node '{}' acquired the binary folder synchronization lease.", lease.getOwnerId());
+        } else if (!held && wasHeld) {
+            log.warn("Cluster node '{}' lost the binary folder synchronization lease.", lease.getOwnerId());
+        }
+
+        if (held) {
+            replayJournal(null);
+        }
+    }
+
+    /**
+     * Replays the unfinished operations in the journal older than the lease TTL in batches,
+     * saving the journal once per batch. The replay stops as soon as the lease is not held any more.
+     * @param ownerId identifier of the cluster node of which the operations are replayed whatever their age, or null
+     */
+    private void replayJournal(final String ownerId) {
+        try {
+            final BinaryPathSyncJournal.ReplayResult result = journal.replay(System.currentTimeMillis() - leaseTtlMillis,
+                    ownerId, maxAttempts, replayBatchSize, new BinaryPathSyncJournal.Replayer() {
+                        @Override
+                        public boolean isActive() {
+                            return lease.isHeld();
+                        }
+
+                        @Override
+                        public boolean replay(BinaryPathSyncJournal.Entry entry) {
+                            return synchronize(entry.getAction(), entry.getSubjectId(), entry.getSubjectPath(), entry.getArguments());
+                        }
+                    });
+
+            if (!result.isEmpty()) {
+                log.info("Replayed binary folder synchronization operations: {} done, {} failed, {} dropped.",
+                        result.getDone(), result.getFailed(), result.getDropped());
+            }
+        } catch (RepositoryException e) {
+            log.error("Repository exception while replaying the binary folder synchronization journal.", e);
+        }
+    }
+
+    /**
+     * Runs the binary folder synchronization operation for the workflow action on the subject node.
+     * @param action workflow action name
+     * @param subjectId workflow subject node identifier
+     * @param subjectPath workflow subject node path at the time of the event
+     * @param arguments workflow arguments
+     * @return true if the operation is done or there's nothing to do, false if it failed
+     */
+    private synchronized boolean synchronize(final String action, final String subjectId, final String subjectPath, final List<String> arguments) {
+        final OperationTrace trace = OperationTrace.begin("sync." + action, subjectPath);
+
+        try {
+            final Node subjectNode;
+            final long startNanos = System.nanoTime();
+
+            try {
+                subjectNode = session.getNodeByIdentifier(subjectId);
+            } catch (ItemNotFoundException e) {
+                log.info("Ignoring '{}' operation on '{}' because the subject node doesn't exist any more.", action, subjectPath);
+                return true;
+            } finally {
+                OperationTrace.record(OperationTrace.GET_NODE_BY_IDENTIFIER, startNanos);
+            }
+
+            if ("rename".equals(action) && subjectNode.isNodeType("hippostd:folder")) {
+                return handleFolderRenameHippoEvent(subjectNode, subjectPath, arguments);
+            } else if ("replaceAllLocalizedNames".equals(action) && subjectNode.isNodeType("hippo:handle") && subjectNode.hasNode(subjectNode.getName())) {
+                return handleDocumentRenameHippoEvent(subjectNode, subjectPath, arguments);
+            } else if ("move".equals(action) && subjectNode.isNodeType("hippo:handle") && subjectNode.hasNode(subjectNode.getName())) {
+                return handleDocumentMoveHippoEvent(subjectNode, subjectPath, arguments);
+            }
+
+            return true;
+        } catch (RepositoryException e) {
+            log.error("Repository exception while reading the workflow subject node.", e);
+            return false;
+        } finally {
+            trace.end();
+        }
     }
 
     /**
@@ -117,8 +337,11 @@ public class BinaryPathUpdaterModule implements DaemonModule {
      * @param folderNode folder node
      * @param subjectPath old folder path (the original folder path before renaming)
      * @param arguments folder workflow arguments containing old folder path and new folder path as ordered.
+     * @return true if the synchronization is done, false if it failed
      */
-    private void handleFolderRenameHippoEvent(final Node folderNode, final String subjectPath, final List<String> arguments) {
+    private boolean handleFolderRenameHippoEvent(final Node folderNode, final String subjectPath, final List<String> arguments) {
+        boolean succeeded = false;
+
         try {
             final String oldChildFolderNodeName = CollectionUtils.isEmpty(arguments) ? null : arguments.get(0);
             final String newChildFolderNodeName = CollectionUtils.size(arguments) < 2 ? null : arguments.get(1);
@@ -128,7 +351,19 @@ public class BinaryPathUpdaterModule implements DaemonModule {
                 newChildFolderNode = folderNode.getNode(newChildFolderNodeName);
             }
 
-            if (newChildFolderNode != null) {
+            if (!StringUtils.equals(folderNode.getPath(), subjectPath)) {
+                log.info("The folder '{}' of the '{}' -> '{}' rename has moved to '{}' since.",
+                        subjectPath, oldChildFolderNodeName, newChildFolderNodeName, folderNode.getPath());
+            }
+
+            if (newChildFolderNode == null) {
+                // e.g. a replayed entry of a folder which has been renamed again or removed since
+                log.warn("Ignoring stale '{}' -> '{}' folder rename under '{}' because '{}' doesn't exist any more.",
+                        oldChildFolderNodeName, newChildFolderNodeName, folderNode.getPath(), newChildFolderNodeName);
+            } else if (StringUtils.isNotBlank(oldChildFolderNodeName) && folderNode.hasNode(oldChildFolderNodeName)) {
+                log.warn("Ignoring stale '{}' -> '{}' folder rename under '{}' because '{}' exists again.",
+                        oldChildFolderNodeName, newChildFolderNodeName, folderNode.getPath(), oldChildFolderNodeName);
+            } else {
                 final Collection<Node> binaryFolderNodes = getLinkedBinaryFolderNodes(newChildFolderNode);
 
                 boolean anyUpdated = false;
@@ -140,9 +375,13 @@ public class BinaryPathUpdaterModule implements DaemonModule {
                 }
 
                 if (anyUpdated) {
+                    final long startNanos = System.nanoTime();
                     session.save();
+                    OperationTrace.record(OperationTrace.SAVE, startNanos);
                 }
             }
+
+            succeeded = true;
         } catch (RepositoryException e) {
             log.error("Repository exception while synchronizing binary folders by document handle.", e);
         } finally {
@@ -152,6 +391,8 @@ public class BinaryPathUpdaterModule implements DaemonModule {
                 log.error("Failed to refresh the session.", re);
             }
         }
+
+        return succeeded;
     }
 
     /**
@@ -159,8 +400,11 @@ public class BinaryPathUpdaterModule implements DaemonModule {
      * @param documentHandleNode document handle node
      * @param subjectPath document handle node path
      * @param arguments folder workflow arguments containing old folder path and new folder path as ordered.
+     * @return true if the synchronization is done, false if it failed
      */
-    private void handleDocumentRenameHippoEvent(final Node documentHandleNode, final String subjectPath, final List<String> arguments) {
+    private boolean handleDocumentRenameHippoEvent(final Node documentHandleNode, final String subjectPath, final List<String> arguments) {
+        boolean succeeded = false;
+
         try {
             final Collection<Node> binaryFolderNodes = getLinkedBinaryFolderNodes(documentHandleNode);
 
@@ -173,8 +417,12 @@ public class BinaryPathUpdaterModule implements DaemonModule {
             }
 
             if (anyUpdated) {
+                final long startNanos = System.nanoTime();
                 session.save();
+                OperationTrace.record(OperationTrace.SAVE, startNanos);
             }
+
+            succeeded = true;
         } catch (RepositoryException e) {
             log.error("Repository exception while synchronizing binary folders by document handle.", e);
         } finally {
@@ -184,33 +432,54 @@ public class BinaryPathUpdaterModule implements DaemonModule {
                 log.error("Failed to refresh the session.", re);
             }
         }
+
+        return succeeded;
     }
 
     /**
      * Handles document moving hippo event.
+     * <p>
+     * The target binary folder provisioning, the binary folder move, the mixin fixes, the translation
+     * synchronization and the image manifest relocation are committed in a single save, so a failure leaves no empty target binary folders behind.
+     * If the source binary folder doesn't exist or the target binary folder already exists, nothing is written.
+     * </p>
      * @param documentHandleNode document handle node
      * @param subjectPath document handle node path
      * @param arguments folder workflow arguments containing old folder path and new folder path as ordered.
+     * @return true if the synchronization is done, false if it failed
      */
-    private void handleDocumentMoveHippoEvent(final Node documentHandleNode, final String subjectPath, final List<String> arguments) {
+    private boolean handleDocumentMoveHippoEvent(final Node documentHandleNode, final String subjectPath, final List<String> arguments) {
+        boolean succeeded = false;
+
         try {
-            final String oldDocumentHandleRelPath = StringUtils.removeStart(subjectPath, "/content/documents/");
-            final String newDocumentHandleRelPath = StringUtils.removeStart(documentHandleNode.getPath(), "/content/documents/");
-            final String newDocumentHandleParentRelPath = StringUtils.removeStart(documentHandleNode.getParent().getPath(), "/content/documents/");
-            final String sourceBinaryFolderPath = "/content/gallery/" + oldDocumentHandleRelPath;
-            final String targetBinaryFolderPath = "/content/gallery/" + newDocumentHandleRelPath;
+            final String newDocumentHandleParentRelPath = BinaryFolderUtils.getDocumentRelPath(documentHandleNode.getParent().getPath());
+            final String sourceBinaryFolderPath = BinaryFolderUtils.getBinaryFolderPath(subjectPath);
+            final String targetBinaryFolderPath = BinaryFolderUtils.getBinaryFolderPath(documentHandleNode.getPath());
 
             if (StringUtils.equals(sourceBinaryFolderPath, targetBinaryFolderPath)) {
                 log.warn("Source binary folder path and target binary folder path are the same!");
+            } else if (!session.nodeExists(sourceBinaryFolderPath)) {
+                log.debug("Source binary folder doesn't exist.");
+            } else if (session.nodeExists(targetBinaryFolderPath)) {
+                log.warn("Not moving the binary folder '{}' because '{}' already exists.", sourceBinaryFolderPath, targetBinaryFolderPath);
             } else {
-                if (!session.nodeExists(sourceBinaryFolderPath)) {
-                    log.debug("Source binary folder doesn't exist.");
-                } else {
-                    createBinaryFoldersIfNotExisting(newDocumentHandleParentRelPath);
-                    session.move(sourceBinaryFolderPath, targetBinaryFolderPath);
-                    session.save();
-                }
+                long startNanos = System.nanoTime();
+                BinaryFolderUtils.createBinaryFoldersIfNotExisting(session, newDocumentHandleParentRelPath);
+                OperationTrace.record(OperationTrace.CREATE_FOLDERS, startNanos);
+
+                startNanos = System.nanoTime();
+                session.move(sourceBinaryFolderPath, targetBinaryFolderPath);
+                OperationTrace.record(OperationTrace.MOVE, startNanos);
+
+                synchronizeBinaryFolderNode(session.getNode(targetBinaryFolderPath), documentHandleNode);
+                ImageManifestUpdaterModule.relocateImageManifests(session, sourceBinaryFolderPath, targetBinaryFolderPath);
+
+                startNanos = System.nanoTime();
+                session.save();
+                OperationTrace.record(OperationTrace.SAVE, startNanos);
             }
+
+            succeeded = true;
         } catch (RepositoryException e) {
             log.error("Repository exception while synchronizing binary folders by moved document handle.", e);
         } finally {
@@ -220,45 +489,8 @@ public class BinaryPathUpdaterModule implements DaemonModule {
                 log.error("Failed to refresh the session.", re);
             }
         }
-    }
-
-    /**
-     * Create gallery binary folder nodes if not existing.
-     * @param relPath
-     * @throws RepositoryException
-     */
-    private void createBinaryFoldersIfNotExisting(final String relPath) throws RepositoryException {
-        final String [] folderNames = StringUtils.split(relPath, "/");
-
-        if (folderNames != null) {
-            Node galleryNode = session.getNode("/content/gallery");
-            Node docFolderNode = session.getNode("/content/documents");
-            String folderName;
-            boolean updated = false;
-
-            for (int i = 0; i < folderNames.length; i++) {
-                folderName = StringUtils.substringBefore(folderNames[i], "[");
-                docFolderNode = docFolderNode.getNode(folderName);
-
-                if (galleryNode.hasNode(folderName)) {
-                    galleryNode = galleryNode.getNode(folderName);
-                } else {
-                    galleryNode = galleryNode.addNode(folderName, "hippogallery:stdImageGallery");
-                    galleryNode.addMixin("hippo:translated");
-                    galleryNode.addMixin("mix:referenceable");
-                    galleryNode.setProperty("hippostd:foldertype", GALLERY_NODE_FOLDER_TYPES);
-                    galleryNode.setProperty("hippostd:gallerytype", GALLERY_NODE_GALLERY_TYPES);
-
-                    copyTranslationNodes(docFolderNode, galleryNode);
-
-                    updated = true;
-                }
-            }
 
-            if (updated) {
-                session.save();
-            }
-        }
+        return succeeded;
     }
 
     /**
@@ -272,19 +504,17 @@ public class BinaryPathUpdaterModule implements DaemonModule {
     private boolean synchronizeEachBinaryFolderByFolder(Node binaryFolderNode, Node folderNode, String oldFolderPath) throws RepositoryException {
         boolean updated = false;
 
-        try {
-            final String oldFolderRelPath = StringUtils.removeStart(oldFolderPath, "/content/documents/");
-            final String binaryFolderRelPath = StringUtils.removeStart(binaryFolderNode.getPath(), "/content/gallery/");
+        final String oldFolderRelPath = StringUtils.removeStart(oldFolderPath, "/content/documents/");
+        final String binaryFolderRelPath = StringUtils.removeStart(binaryFolderNode.getPath(), "/content/gallery/");
+        final String interimBinaryFolderPath = "/content/gallery/" + oldFolderRelPath;
 
-            if (StringUtils.startsWith(binaryFolderRelPath, oldFolderRelPath)) {
-                Node interimBinaryFolderNode = session.getNode("/content/gallery/" + oldFolderRelPath);
+        // the interim binary folder may already have been moved along with another binary folder under it
+        if (StringUtils.startsWith(binaryFolderRelPath, oldFolderRelPath) && session.nodeExists(interimBinaryFolderPath)) {
+            Node interimBinaryFolderNode = session.getNode(interimBinaryFolderPath);
 
-                if (moveBinaryFolderNodeByBaseNode(interimBinaryFolderNode, folderNode)) {
-                    updated = true;
-                }
+            if (moveBinaryFolderNodeByBaseNode(interimBinaryFolderNode, folderNode)) {
+                updated = true;
             }
-        } catch (RepositoryException e) {
-            log.error("Repository exception while synchronizing single binary folder by document handle.", e);
         }
 
         return updated;
@@ -300,17 +530,13 @@ public class BinaryPathUpdaterModule implements DaemonModule {
     private boolean synchronizeEachBinaryFolderByDocumentHandle(Node binaryFolderNode, Node documentHandleNode) throws RepositoryException {
         boolean updated = false;
 
-        try {
-            final String documentHandleParentRelPath = StringUtils.removeStart(documentHandleNode.getParent().getPath(), "/content/documents/");
-            final String binaryFolderParentRelPath = StringUtils.removeStart(binaryFolderNode.getParent().getPath(), "/content/gallery/");
+        final String documentHandleParentRelPath = StringUtils.removeStart(documentHandleNode.getParent().getPath(), "/content/documents/");
+        final String binaryFolderParentRelPath = StringUtils.removeStart(binaryFolderNode.getParent().getPath(), "/content/gallery/");
 
-            if (StringUtils.equals(binaryFolderParentRelPath, documentHandleParentRelPath)) {
-                if (moveBinaryFolderNodeByBaseNode(binaryFolderNode, documentHandleNode)) {
-                    updated = true;
-                }
+        if (StringUtils.equals(binaryFolderParentRelPath, documentHandleParentRelPath)) {
+            if (moveBinaryFolderNodeByBaseNode(binaryFolderNode, documentHandleNode)) {
+                updated = true;
             }
-        } catch (RepositoryException e) {
-            log.error("Repository exception while synchronizing single binary folder by document handle.", e);
         }
 
         return updated;
@@ -318,7 +544,8 @@ public class BinaryPathUpdaterModule implements DaemonModule {
 
     /**
      * Rename (move) the {@code binaryFolderNode} based on the corresponding base node
-     * (which is either document handle node or interim folder node).
+     * (which is either document handle node or interim folder node),
+     * and relocate the image manifest entries under it.
      * @param binaryFolderNode binary folder node
      * @param correspondingBaseNode corresponding base node (which is either document handle node or interim folder node)
      * @throws RepositoryException repository exception if node moving (renaming) fails.
@@ -335,26 +562,49 @@ public class BinaryPathUpdaterModule implements DaemonModule {
         if (nodePathsAlreadyInSync) {
             log.debug("The node paths were already synchronized: '{}'.", oldBinaryFolderNodePath);
         } else {
+            final long startNanos = System.nanoTime();
             session.move(oldBinaryFolderNodePath, newBinaryFolderNodePath);
+            OperationTrace.record(OperationTrace.MOVE, startNanos);
+            ImageManifestUpdaterModule.relocateImageManifests(session, oldBinaryFolderNodePath, newBinaryFolderNodePath);
+            updated = true;
+        }
+
+        if (synchronizeBinaryFolderNode(session.getNode(newBinaryFolderNodePath), correspondingBaseNode)) {
             updated = true;
         }
 
-        Node newBinaryFolderNode = session.getNode(newBinaryFolderNodePath);
+        return updated;
+    }
+
+    /**
+     * Makes sure the binary folder node has the proper mixins again after a move
+     * and the same translations as the corresponding base node, without saving.
+     * @param binaryFolderNode binary folder node
+     * @param correspondingBaseNode corresponding base node (which is either document handle node or interim folder node)
+     * @return true if any updated
+     * @throws RepositoryException repository exception
+     */
+    private boolean synchronizeBinaryFolderNode(Node binaryFolderNode, Node correspondingBaseNode) throws RepositoryException {
+        boolean updated = false;
 
         // make sure to have proper mixins again.
-        if (!newBinaryFolderNode.isNodeType("mix:referenceable")) {
-            newBinaryFolderNode.addMixin("mix:referenceable");
+        if (!binaryFolderNode.isNodeType("mix:referenceable")) {
+            binaryFolderNode.addMixin("mix:referenceable");
             updated = true;
         }
-        if (!newBinaryFolderNode.isNodeType("hippo:translated")) {
-            newBinaryFolderNode.addMixin("hippo:translated");
+        if (!binaryFolderNode.isNodeType("hippo:translated")) {
+            binaryFolderNode.addMixin("hippo:translated");
             updated = true;
         }
 
-        if (copyTranslationNodes(correspondingBaseNode, newBinaryFolderNode)) {
+        final long startNanos = System.nanoTime();
+
+        if (copyTranslationNodes(correspondingBaseNode, binaryFolderNode)) {
             updated = true;
         }
 
+        OperationTrace.record(OperationTrace.TRANSLATION_COPY, startNanos);
+
         return updated;
     }
 
@@ -438,43 +688,44 @@ public class BinaryPathUpdaterModule implements DaemonModule {
      * under the document handle node.
      * @param documentHandleNode the document handle node
      * @return all the mirror link compound nodes (e.g, image link nodes) under the document handle node
+     * @throws RepositoryException repository exception if the query fails
      */
-    private Collection<Node> getLinkedBinaryFolderNodes(final Node baseNode) {
+    private Collection<Node> getLinkedBinaryFolderNodes(final Node baseNode) throws RepositoryException {
         Map<String, Node> binaryFolderNodesMap = new HashMap<String, Node>();
 
-        try {
-            final String statement = "/jcr:root"
-                               + baseNode.getPath()
-                               + "//element(*,hippo:facetselect)[@hippo:docbase and @hippo:docbase != 'cafebabe-cafe-babe-cafe-babecafebabe']";
-            Query query = session.getWorkspace().getQueryManager().createQuery(RepoUtils.encodeXpath(statement), Query.XPATH);
-            QueryResult result = query.execute();
-            Node linkNode;
-            String docbaseUuid;
-            Node binaryHandleNode;
-            Node binaryHandleParentNode;
-
-            for (NodeIterator nodeIt = result.getNodes(); nodeIt.hasNext(); ) {
-                linkNode = nodeIt.nextNode();
-
-                if (linkNode != null) {
-                    docbaseUuid = linkNode.getProperty("hippo:docbase").getString();
+        final String statement = "/jcr:root"
+                           + baseNode.getPath()
+                           + "//element(*,hippo:facetselect)[@hippo:docbase and @hippo:docbase != 'cafebabe-cafe-babe-cafe-babecafebabe']";
+        long startNanos = System.nanoTime();
+        Query query = session.getWorkspace().getQueryManager().createQuery(RepoUtils.encodeXpath(statement), Query.XPATH);
+        QueryResult result = query.execute();
+        OperationTrace.record(OperationTrace.QUERY, startNanos);
+        Node linkNode;
+        String docbaseUuid;
+        Node binaryHandleNode;
+        Node binaryHandleParentNode;
 
-                    try {
-                        binaryHandleNode = session.getNodeByIdentifier(docbaseUuid);
+        for (NodeIterator nodeIt = result.getNodes(); nodeIt.hasNext(); ) {
+            linkNode = nodeIt.nextNode();
 
-                        if (!binaryHandleNode.isNodeType("hippo:handle")) {
-                            log.error("The binary handle node by docbase, '{}', is not a hippo:handle.", docbaseUuid);
-                        } else if (StringUtils.startsWith(binaryHandleNode.getPath(), "/content/gallery/")) {
-                            binaryHandleParentNode = binaryHandleNode.getParent();
-                            binaryFolderNodesMap.put(binaryHandleParentNode.getPath(), binaryHandleParentNode);
-                        }
-                    } catch (ItemNotFoundException infe) {
-                        log.error("Cannot find the binary handle node by docbase: {}", docbaseUuid);
+            if (linkNode != null) {
+                docbaseUuid = linkNode.getProperty("hippo:docbase").getString();
+
+                try {
+                    startNanos = System.nanoTime();
+                    binaryHandleNode = session.getNodeByIdentifier(docbaseUuid);
+                    OperationTrace.record(OperationTrace.GET_NODE_BY_IDENTIFIER, startNanos);
+
+                    if (!binaryHandleNode.isNodeType("hippo:handle")) {
+                        log.error("The binary handle node by docbase, '{}', is not a hippo:handle.", docbaseUuid);
+                    } else if (StringUtils.startsWith(binaryHandleNode.getPath(), "/content/gallery/")) {
+                        binaryHandleParentNode = binaryHandleNode.getParent();
+                        binaryFolderNodesMap.put(binaryHandleParentNode.getPath(), binaryHandleParentNode);
                     }
+                } catch (ItemNotFoundException infe) {
+                    log.error("Cannot find the binary handle node by docbase: {}", docbaseUuid);
                 }
             }
-        } catch (RepositoryException e) {
-            log.error("Repository exception while handling document rename workflow event.", e);
         }
 
         return binaryFolderNodesMap.values();
@@ -501,26 +752,46 @@ public class BinaryPathUpdaterModule implements DaemonModule {
         @Subscribe
         public void handleEvent(HippoEvent<?> event) {
             if ("workflow".equals(event.category())) {
-                try {
-                    String subjectPath = ((HippoWorkflowEvent) event).subjectPath();
+                String subjectPath = ((HippoWorkflowEvent) event).subjectPath();
+
+                if (!StringUtils.startsWith(subjectPath, "/content/documents/")) {
+                    log.info("Ignoring hippo event on '{}' because it's not under '/content/documents/'.", subjectPath);
+                    return;
+                }
+
+                if (!"rename".equals(event.action()) && !"replaceAllLocalizedNames".equals(event.action()) && !"move".equals(event.action())) {
+                    return;
+                }
+
+                // the bulk moves move the binary folders themselves
+                if (Boolean.TRUE.equals(event.get(BulkReorganizer.BULK_REORGANIZE_EVENT_ATTR))) {
+                    return;
+                }
 
-                    if (!StringUtils.startsWith(subjectPath, "/content/documents/")) {
-                        log.info("Ignoring hippo event on '{}' because it's not under '/content/documents/'.", subjectPath);
-                        return;
+                String subjectId = ((HippoWorkflowEvent) event).subjectId();
+                List<String> arguments = (List<String>) event.get("arguments");
+                String entryName = null;
+
+                if (journal != null) {
+                    try {
+                        entryName = journal.append(event.action(), subjectId, subjectPath, arguments);
+                    } catch (RepositoryException e) {
+                        log.error("Repository exception while journaling the binary folder synchronization operation.", e);
                     }
+                }
 
-                    String subjectId = ((HippoWorkflowEvent) event).subjectId();
-                    final Node subjectNode = session.getNodeByIdentifier(subjectId);
+                final boolean done = synchronize(event.action(), subjectId, subjectPath, arguments);
 
-                    if ("rename".equals(event.action()) && subjectNode.isNodeType("hippostd:folder")) {
-                        handleFolderRenameHippoEvent(subjectNode, subjectPath, (List<String>) event.get("arguments"));
-                    } else if ("replaceAllLocalizedNames".equals(event.action()) && subjectNode.isNodeType("hippo:handle") && subjectNode.hasNode(subjectNode.getName())) {
-                        handleDocumentRenameHippoEvent(subjectNode, subjectPath, (List<String>) event.get("arguments"));
-                    } else if ("move".equals(event.action()) && subjectNode.isNodeType("hippo:handle") && subjectNode.hasNode(subjectNode.getName())) {
-                        handleDocumentMoveHippoEvent(subjectNode, subjectPath, (List<String>) event.get("arguments"));
+                if (entryName != null) {
+                    try {
+                        if (done) {
+                            journal.remove(entryName, true);
+                        } else {
+                            journal.markFailed(entryName, true);
+                        }
+                    } catch (RepositoryException e) {
+                        log.error("Repository exception while updating the binary folder synchronization journal.", e);
                     }
-                } catch (RepositoryException e) {
-                    log.error("Repository exception while handling rename workflow event.", e);
                 }
             }
         }
@@ -0,0 +1,782 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.repository.module;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Binary;
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import javax.jcr.observation.ObservationManager;
+import javax.jcr.query.Query;
+import javax.xml.bind.DatatypeConverter;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.jackrabbit.api.observation.JackrabbitEvent;
+import org.example.customgallerypicker.demo.repository.cluster.RepositoryLease;
+import org.example.customgallerypicker.demo.repository.hash.ContentHashIndex;
+import org.example.customgallerypicker.demo.repository.hash.ContentHashStore;
+import org.example.customgallerypicker.demo.repository.hash.InMemoryContentHashIndex;
+import org.example.customgallerypicker.demo.repository.util.BinaryFolderUtils;
+import org.onehippo.cms7.event.HippoEvent;
+import org.onehippo.cms7.services.HippoServiceRegistry;
+import org.onehippo.cms7.services.eventbus.HippoEventBus;
+import org.onehippo.cms7.services.eventbus.Subscribe;
+import org.onehippo.repository.events.HippoWorkflowEvent;
+import org.onehippo.repository.modules.ConfigurableDaemonModule;
+import org.onehippo.repository.modules.DaemonModule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link DaemonModule} implementation which maintains the {@link ContentHashIndex} of the original gallery images
+ * and registers it in the {@link HippoServiceRegistry}.
+ * <p>
+ * The hashes are persisted in the {@link ContentHashStore} ("hashes" child node of the module configuration node)
+ * shared by all the cluster nodes, and the in-memory index of each cluster node mirrors the store:
+ * it is loaded from the store on initialization and updated by the repository events on the store afterward.
+ * </p>
+ * <p>
+ * The store is written only by the cluster node where the gallery changed:
+ * </p>
+ * <ul>
+ * <li>an image set created by the gallery workflow is hashed once uploaded,</li>
+ * <li>an image set of which the original image data is added or replaced is hashed again,</li>
+ * <li>an image set handle which is removed, and not just moved, is removed.</li>
+ * </ul>
+ * <p>
+ * The full rebuild, hashing the original images under /content/gallery/ missing in the store on a fixed thread pool
+ * (each thread with its own impersonated session) and removing the stored hashes of the deleted image sets,
+ * runs only on the cluster node holding the {@link RepositoryLease} ("lease" child node of the module configuration
+ * node) whenever it acquires the lease. So the other cluster nodes never hash the whole gallery on startup.
+ * The rebuild saves the hashes page by page, so a cluster node taking the lease over resumes from the stored hashes.
+ * </p>
+ * <p>
+ * The module configuration node may have the following properties:
+ * </p>
+ * <ul>
+ * <li><code>threads</code>: number of rebuild threads (default 4)</li>
+ * <li><code>rebuild.on.startup</code>: whether to rebuild the store when acquiring the lease (default true)</li>
+ * <li><code>delay.seconds</code>: delay before hashing a new image set, to let the upload finish (default 5)</li>
+ * <li><code>lease.ttl.seconds</code>: rebuild lease time to live (default 60)</li>
+ * <li><code>rebuild.batch.size</code>: number of gallery image sets per rebuild query page and store save (default 500)</li>
+ * </ul>
+ * <p>
+ * Note that the repository data store already stores identical binaries only once.
+ * This index addresses the duplicated image set nodes in the many co-located gallery folders,
+ * which editors need to find in order to link an existing image instead.
+ * </p>
+ */
+public class ContentHashIndexModule implements ConfigurableDaemonModule {
+
+    private static Logger log = LoggerFactory.getLogger(ContentHashIndexModule.class);
+
+    private static final String ORIGINAL_VARIANT_NAME = "hippogallery:original";
+
+    /**
+     * Store node name under the module configuration node.
+     */
+    private static final String STORE_NODE_NAME = "hashes";
+
+    /**
+     * Lease node name under the module configuration node.
+     */
+    private static final String LEASE_NODE_NAME = "lease";
+
+    /**
+     * Relative path of the original image data property from the image set handle.
+     */
+    private static final String ORIGINAL_DATA_PATH_SUFFIX = "/" + ORIGINAL_VARIANT_NAME + "/jcr:data";
+
+    /**
+     * System JCR Session which is given by the Hippo Repository Engine on initialization.
+     */
+    private Session session;
+
+    /**
+     * Module configuration node path, under which the store and the lease are stored.
+     */
+    private String moduleConfigPath;
+
+    private int threads = 4;
+
+    private boolean rebuildOnStartup = true;
+
+    private long delaySeconds = 5L;
+
+    private long leaseTtlMillis = TimeUnit.SECONDS.toMillis(60);
+
+    private int rebuildBatchSize = 500;
+
+    private InMemoryContentHashIndex index;
+
+    /**
+     * JCR session dedicated to the store and the event listeners.
+     */
+    private Session storeSession;
+
+    private ContentHashStore store;
+
+    /**
+     * JCR session dedicated to the lease.
+     */
+    private Session leaseSession;
+
+    /**
+     * Cluster wide lease for the rebuild.
+     */
+    private RepositoryLease lease;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * Scheduler of the lease renewals.
+     */
+    private ScheduledExecutorService leaseScheduler;
+
+    /**
+     * Executor of the rebuilds, so a long rebuild delays neither the lease renewals nor the indexing of new images.
+     */
+    private ExecutorService rebuildExecutor;
+
+    /**
+     * Image set handle paths scheduled to be hashed, to hash an image once for several events.
+     */
+    private final Set<String> pendingHandlePaths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * Hippo Gallery Item Creation Event Listener instance.
+     */
+    private HippoGalleryItemCreateEventListener galleryItemCreateEventListener;
+
+    private GalleryChangeEventListener galleryChangeEventListener;
+
+    private StoreChangeEventListener storeChangeEventListener;
+
+    @Override
+    public void configure(Node moduleConfig) throws RepositoryException {
+        moduleConfigPath = moduleConfig.getPath();
+
+        if (moduleConfig.hasProperty("threads")) {
+            threads = (int) Math.max(1L, moduleConfig.getProperty("threads").getLong());
+        }
+        if (moduleConfig.hasProperty("rebuild.on.startup")) {
+            rebuildOnStartup = moduleConfig.getProperty("rebuild.on.startup").getBoolean();
+        }
+        if (moduleConfig.hasProperty("delay.seconds")) {
+            delaySeconds = Math.max(0L, moduleConfig.getProperty("delay.seconds").getLong());
+        }
+        if (moduleConfig.hasProperty("lease.ttl.seconds")) {
+            leaseTtlMillis = TimeUnit.SECONDS.toMillis(Math.max(3L, moduleConfig.getProperty("lease.ttl.seconds").getLong()));
+        }
+        if (moduleConfig.hasProperty("rebuild.batch.size")) {
+            rebuildBatchSize = (int) Math.max(1L, moduleConfig.getProperty("rebuild.batch.size").getLong());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This method loads the persisted hashes, registers the index service and the repository event listeners,
+     * schedules the lease renewals and the rebuilds, and registers the gallery item creation event listener
+     * to {@link HippoEventBus}.
+     * </p>
+     */
+    @Override
+    public void initialize(Session session) throws RepositoryException {
+        this.session = session;
+
+        if (moduleConfigPath == null) {
+            log.warn("No module configuration found. The content hash index is disabled.");
+            return;
+        }
+
+        storeSession = impersonate();
+        store = new ContentHashStore(storeSession, moduleConfigPath + "/" + STORE_NODE_NAME);
+        index = new InMemoryContentHashIndex();
+        executor = Executors.newSingleThreadScheduledExecutor();
+
+        final ObservationManager observationManager = storeSession.getWorkspace().getObservationManager();
+        storeChangeEventListener = new StoreChangeEventListener();
+        observationManager.addEventListener(storeChangeEventListener,
+                Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED,
+                store.getStorePath(), true, null, null, false);
+        galleryChangeEventListener = new GalleryChangeEventListener();
+        observationManager.addEventListener(galleryChangeEventListener,
+                Event.NODE_REMOVED | Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED,
+                BinaryFolderUtils.GALLERY_ROOT_PATH, true, null, null, false);
+
+        index.putAll(store.loadAll());
+        log.info("Loaded {} persisted content hashes.", index.size());
+        HippoServiceRegistry.registerService(index, ContentHashIndex.class);
+
+        rebuildExecutor = Executors.newSingleThreadExecutor();
+        leaseSession = impersonate();
+        lease = new RepositoryLease(leaseSession, moduleConfigPath + "/" + LEASE_NODE_NAME,
+                RepositoryLease.getDefaultOwnerId(), leaseTtlMillis);
+        leaseScheduler = Executors.newSingleThreadScheduledExecutor();
+        leaseScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                renewLeaseAndRebuild();
+            }
+        }, 0L, leaseTtlMillis / 3, TimeUnit.MILLISECONDS);
+
+        galleryItemCreateEventListener = new HippoGalleryItemCreateEventListener();
+        HippoServiceRegistry.registerService(galleryItemCreateEventListener, HippoEventBus.class);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This method unregisters the event listeners and the index service, stops the background work
+     * and releases the lease.
+     * </p>
+     */
+    @Override
+    public void shutdown() {
+        if (galleryItemCreateEventListener != null) {
+            HippoServiceRegistry.unregisterService(galleryItemCreateEventListener, HippoEventBus.class);
+        }
+
+        if (index != null) {
+            HippoServiceRegistry.unregisterService(index, ContentHashIndex.class);
+        }
+
+        if (leaseScheduler != null) {
+            leaseScheduler.shutdownNow();
+        }
+
+        if (rebuildExecutor != null) {
+            rebuildExecutor.shutdownNow();
+        }
+
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+
+        if (lease != null) {
+            lease.release();
+        }
+
+        if (leaseSession != null) {
+            leaseSession.logout();
+        }
+
+        if (storeSession != null) {
+            try {
+                final ObservationManager observationManager = storeSession.getWorkspace().getObservationManager();
+
+                if (storeChangeEventListener != null) {
+                    observationManager.removeEventListener(storeChangeEventListener);
+                }
+
+                if (galleryChangeEventListener != null) {
+                    observationManager.removeEventListener(galleryChangeEventListener);
+                }
+            } catch (RepositoryException e) {
+                log.warn("Failed to remove the repository event listeners: {}", e.toString());
+            }
+
+            storeSession.logout();
+        }
+    }
+
+    /**
+     * Computes the lower case hexadecimal SHA-256 hash of the {@code input} stream, reading it to the end.
+     * @param input input stream, which is not closed by this method
+     * @return the lower case hexadecimal content hash
+     * @throws IOException IO exception
+     */
+    public static String computeHash(final InputStream input) throws IOException {
+        final MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance(ContentHashIndex.ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        final byte [] buffer = new byte[8192];
+        int len;
+
+        while ((len = input.read(buffer)) != -1) {
+            digest.update(buffer, 0, len);
+        }
+
+        return DatatypeConverter.printHexBinary(digest.digest()).toLowerCase();
+    }
+
+    /**
+     * Acquires or renews the lease, and starts rebuilding the store if this cluster node has just acquired the lease.
+     */
+    private void renewLeaseAndRebuild() {
+        final boolean wasHeld = lease.isHeld();
+        final boolean held = lease.tryAcquire();
+
+        if (held && !wasHeld) {
+            log.info("Cluster node '{}' acquired the content hash index lease.", lease.getOwnerId());
+
+            if (rebuildOnStartup) {
+                rebuildExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        rebuild();
+                    }
+                });
+            }
+        } else if (!held && wasHeld) {
+            log.warn("Cluster node '{}' lost the content hash index lease.", lease.getOwnerId());
+        }
+    }
+
+    /**
+     * Rebuilds the store by hashing the original gallery images missing in the store in parallel,
+     * and by removing the stored hashes of the image sets which don't exist any more.
+     * The rebuild stops as soon as the lease is not held any more.
+     * <p>
+     * The gallery image sets are queried one page of {@code rebuild.batch.size} results at a time,
+     * and the hashes of each page are saved before querying the next one, so the memory stays bounded
+     * and the cluster node taking the lease over resumes from the stored hashes instead of hashing everything again.
+     * The stale hashes are removed one bucket node of the store at a time.
+     * </p>
+     */
+    private void rebuild() {
+        final long start = System.currentTimeMillis();
+        final ExecutorService hashingExecutor = Executors.newFixedThreadPool(threads);
+        Session querySession = null;
+
+        try {
+            querySession = impersonate();
+            final int hashed = hashMissingImages(querySession, hashingExecutor);
+
+            if (!lease.isHeld()) {
+                log.warn("Stopping the content hash rebuild as the lease is not held any more.");
+                return;
+            }
+
+            final int removed = removeStaleHashes(querySession);
+
+            log.info("Rebuilt the content hash store with {} new and {} stale images in {}ms.",
+                    hashed, removed, System.currentTimeMillis() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("Failed to rebuild the content hash store.", e.getCause());
+        } catch (RepositoryException e) {
+            log.error("Repository exception while rebuilding the content hash store.", e);
+        } finally {
+            hashingExecutor.shutdownNow();
+
+            if (querySession != null) {
+                querySession.logout();
+            }
+        }
+    }
+
+    /**
+     * Hashes and stores the original gallery images missing in the store, one query result page at a time.
+     * Note that an image set added or removed meanwhile may shift the pages: a missed image set is hashed
+     * on its own upload event or by the next rebuild.
+     * @param querySession JCR session to query the gallery image sets
+     * @param hashingExecutor executor hashing the images in parallel
+     * @return the number of hashed images
+     * @throws RepositoryException repository exception
+     * @throws InterruptedException if interrupted while waiting for the hashes
+     * @throws ExecutionException if hashing failed
+     */
+    private int hashMissingImages(final Session querySession, final ExecutorService hashingExecutor)
+            throws RepositoryException, InterruptedException, ExecutionException {
+        final String statement = "/jcr:root" + BinaryFolderUtils.GALLERY_ROOT_PATH + "//element(*,hippogallery:imageset)";
+        final Query query = querySession.getWorkspace().getQueryManager().createQuery(statement, Query.XPATH);
+        query.setLimit(rebuildBatchSize);
+        final List<String> handlePaths = new ArrayList<String>();
+        int hashed = 0;
+        int found;
+        Node imageSetNode;
+        Node handleNode;
+
+        for (long offset = 0L; lease.isHeld(); offset += rebuildBatchSize) {
+            query.setOffset(offset);
+            handlePaths.clear();
+            found = 0;
+
+            for (NodeIterator nodeIt = query.execute().getNodes(); nodeIt.hasNext(); ) {
+                imageSetNode = nodeIt.nextNode();
+                ++found;
+
+                if (imageSetNode != null) {
+                    handleNode = imageSetNode.getParent();
+
+                    if (store.getHash(handleNode.getIdentifier()) == null) {
+                        handlePaths.add(handleNode.getPath());
+                    }
+                }
+            }
+
+            hashed += hashAndStore(handlePaths, hashingExecutor);
+
+            if (found < rebuildBatchSize) {
+                break;
+            }
+        }
+
+        return hashed;
+    }
+
+    /**
+     * Hashes the original images of the image set handles on the hashing threads, and saves their hashes at once.
+     * Nothing is stored if the lease is not held any more.
+     * @param handlePaths image set handle paths
+     * @param hashingExecutor executor hashing the images in parallel
+     * @return the number of stored hashes
+     * @throws RepositoryException repository exception
+     * @throws InterruptedException if interrupted while waiting for the hashes
+     * @throws ExecutionException if hashing failed
+     */
+    private int hashAndStore(final List<String> handlePaths, final ExecutorService hashingExecutor)
+            throws RepositoryException, InterruptedException, ExecutionException {
+        if (handlePaths.isEmpty()) {
+            return 0;
+        }
+
+        final int chunkSize = (handlePaths.size() + threads - 1) / threads;
+        final List<Future<Map<String, String>>> futures = new ArrayList<Future<Map<String, String>>>();
+
+        for (int i = 0; i < handlePaths.size(); i += chunkSize) {
+            final List<String> chunk = new ArrayList<String>(handlePaths.subList(i, Math.min(i + chunkSize, handlePaths.size())));
+            futures.add(hashingExecutor.submit(new Callable<Map<String, String>>() {
+                @Override
+                public Map<String, String> call() throws Exception {
+                    return lease.isHeld() ? hashAll(chunk) : new HashMap<String, String>();
+                }
+            }));
+        }
+
+        final Map<String, String> hashes = new HashMap<String, String>();
+
+        for (Future<Map<String, String>> future : futures) {
+            hashes.putAll(future.get());
+        }
+
+        if (!lease.isHeld()) {
+            return 0;
+        }
+
+        for (Map.Entry<String, String> entry : hashes.entrySet()) {
+            store.put(entry.getKey(), entry.getValue(), false);
+        }
+
+        store.save();
+        return hashes.size();
+    }
+
+    /**
+     * Removes the stored hashes of the image set handles which don't exist any more, saving each bucket node
+     * of the store at once. It stops as soon as the lease is not held any more.
+     * @param querySession JCR session to look the image set handles up
+     * @return the number of removed hashes
+     * @throws RepositoryException repository exception
+     */
+    private int removeStaleHashes(final Session querySession) throws RepositoryException {
+        int removed = 0;
+
+        for (String bucketName : store.getBucketNames()) {
+            if (!lease.isHeld()) {
+                break;
+            }
+
+            for (String imageHandleId : store.getImageHandleIds(bucketName)) {
+                try {
+                    querySession.getNodeByIdentifier(imageHandleId);
+                } catch (ItemNotFoundException e) {
+                    store.remove(imageHandleId, false);
+                    ++removed;
+                }
+            }
+
+            store.save();
+        }
+
+        return removed;
+    }
+
+    /**
+     * Hashes the original images of the image set handles with a new impersonated session.
+     * @param handlePaths image set handle paths
+     * @return content hashes mapped by image set handle identifier
+     * @throws RepositoryException repository exception
+     */
+    private Map<String, String> hashAll(final List<String> handlePaths) throws RepositoryException {
+        final Map<String, String> hashes = new HashMap<String, String>();
+        final Session workerSession = impersonate();
+
+        try {
+            for (String handlePath : handlePaths) {
+                if (Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+
+                try {
+                    if (workerSession.nodeExists(handlePath)) {
+                        final Node handleNode = workerSession.getNode(handlePath);
+                        final String hash = hashOriginal(handleNode);
+
+                        if (hash != null) {
+                            hashes.put(handleNode.getIdentifier(), hash);
+                        }
+                    }
+                } catch (IOException e) {
+                    log.warn("Cannot read the original image of '{}': {}", handlePath, e.toString());
+                }
+            }
+        } finally {
+            workerSession.logout();
+        }
+
+        return hashes;
+    }
+
+    /**
+     * Schedules hashing the original image of the image set handle, unless it's already scheduled.
+     * @param handlePath image set handle path
+     * @param delay delay in seconds
+     */
+    private void scheduleIndexImage(final String handlePath, final long delay) {
+        if (pendingHandlePaths.add(handlePath)) {
+            executor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    pendingHandlePaths.remove(handlePath);
+                    indexImage(handlePath);
+                }
+            }, delay, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Hashes the original image of the image set handle and stores it.
+     * @param handlePath image set handle path
+     */
+    private void indexImage(final String handlePath) {
+        Session workerSession = null;
+
+        try {
+            workerSession = impersonate();
+
+            if (workerSession.nodeExists(handlePath)) {
+                final Node handleNode = workerSession.getNode(handlePath);
+                final String hash = hashOriginal(handleNode);
+
+                if (hash != null && !hash.equals(index.getHash(handleNode.getIdentifier()))) {
+                    store.put(handleNode.getIdentifier(), hash, true);
+                    log.debug("Stored content hash of '{}': {}", handlePath, hash);
+                }
+            }
+        } catch (RepositoryException e) {
+            log.error("Repository exception while indexing the content hash.", e);
+        } catch (IOException e) {
+            log.error("IO exception while indexing the content hash of '" + handlePath + "'.", e);
+        } finally {
+            if (workerSession != null) {
+                workerSession.logout();
+            }
+        }
+    }
+
+    /**
+     * Removes the stored content hash of the image set handle unless the handle still exists, e.g. moved.
+     * @param imageHandleId image set handle identifier
+     */
+    private void unindexImage(final String imageHandleId) {
+        Session workerSession = null;
+
+        try {
+            workerSession = impersonate();
+
+            try {
+                workerSession.getNodeByIdentifier(imageHandleId);
+            } catch (ItemNotFoundException e) {
+                store.remove(imageHandleId, true);
+                log.debug("Removed content hash of the deleted image set '{}'.", imageHandleId);
+            }
+        } catch (RepositoryException e) {
+            log.error("Repository exception while removing the content hash.", e);
+        } finally {
+            if (workerSession != null) {
+                workerSession.logout();
+            }
+        }
+    }
+
+    private String hashOriginal(final Node handleNode) throws RepositoryException, IOException {
+        final String originalRelPath = handleNode.getName() + "/" + ORIGINAL_VARIANT_NAME;
+
+        if (!handleNode.hasNode(originalRelPath) || !handleNode.getNode(originalRelPath).hasProperty("jcr:data")) {
+            return null;
+        }
+
+        final Binary binary = handleNode.getNode(originalRelPath).getProperty("jcr:data").getBinary();
+        InputStream input = null;
+
+        try {
+            input = binary.getStream();
+            return computeHash(input);
+        } finally {
+            IOUtils.closeQuietly(input);
+            binary.dispose();
+        }
+    }
+
+    private Session impersonate() throws RepositoryException {
+        return session.impersonate(new SimpleCredentials(session.getUserID(), new char[0]));
+    }
+
+    private static boolean isExternal(final Event event) {
+        return event instanceof JackrabbitEvent && ((JackrabbitEvent) event).isExternal();
+    }
+
+    /**
+     * {@link HippoEventBus} event listener subscribing {@link HippoEvent}.
+     * <p>
+     * This handles the event only when the category of the {@link HippoEvent} is 'workflow'
+     * and the action of the event is 'createGalleryItem' under /content/gallery/.
+     * </p>
+     */
+    public class HippoGalleryItemCreateEventListener {
+
+        @Subscribe
+        public void handleEvent(HippoEvent<?> event) {
+            if ("workflow".equals(event.category()) && "createGalleryItem".equals(event.action())) {
+                final String subjectPath = ((HippoWorkflowEvent) event).subjectPath();
+                final List<String> arguments = (List<String>) event.get("arguments");
+
+                if (!StringUtils.startsWith(subjectPath, BinaryFolderUtils.GALLERY_ROOT_PATH + "/")
+                        || arguments == null || arguments.isEmpty()) {
+                    return;
+                }
+
+                scheduleIndexImage(subjectPath + "/" + arguments.get(0), delaySeconds);
+            }
+        }
+
+    }
+
+    /**
+     * JCR observation {@link EventListener} of the local gallery changes, hashing an image set again
+     * when its original image data is added or replaced, and removing the hash of a removed image set handle.
+     * <p>
+     * The events of the other cluster nodes are ignored, as they update the store themselves.
+     * </p>
+     */
+    private class GalleryChangeEventListener implements EventListener {
+
+        @Override
+        public void onEvent(EventIterator events) {
+            Event event;
+
+            while (events.hasNext()) {
+                event = events.nextEvent();
+
+                if (isExternal(event)) {
+                    continue;
+                }
+
+                try {
+                    if (event.getType() == Event.NODE_REMOVED) {
+                        final String imageHandleId = event.getIdentifier();
+
+                        if (imageHandleId != null && index.getHash(imageHandleId) != null) {
+                            executor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    unindexImage(imageHandleId);
+                                }
+                            });
+                        }
+                    } else if (StringUtils.endsWith(event.getPath(), ORIGINAL_DATA_PATH_SUFFIX)) {
+                        // <handle>/<imageset>/hippogallery:original/jcr:data
+                        final String imageSetPath = StringUtils.removeEnd(event.getPath(), ORIGINAL_DATA_PATH_SUFFIX);
+                        scheduleIndexImage(StringUtils.substringBeforeLast(imageSetPath, "/"), 0L);
+                    }
+                } catch (RepositoryException e) {
+                    log.warn("Cannot read the gallery change event: {}", e.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * JCR observation {@link EventListener} of the store changes of all the cluster nodes,
+     * updating the in-memory index.
+     */
+    private class StoreChangeEventListener implements EventListener {
+
+        @Override
+        public void onEvent(EventIterator events) {
+            Event event;
+            String imageHandleId;
+            String hash;
+
+            while (events.hasNext()) {
+                event = events.nextEvent();
+
+                try {
+                    imageHandleId = store.getImageHandleId(event.getPath());
+
+                    if (imageHandleId == null) {
+                        continue;
+                    }
+
+                    hash = (event.getType() == Event.PROPERTY_REMOVED ? null : store.getHash(imageHandleId));
+
+                    if (hash != null) {
+                        index.put(hash, imageHandleId);
+                    } else {
+                        index.remove(imageHandleId);
+                    }
+                } catch (RepositoryException e) {
+                    log.warn("Cannot read the content hash store change event: {}", e.toString());
+                }
+            }
+        }
+    }
+}
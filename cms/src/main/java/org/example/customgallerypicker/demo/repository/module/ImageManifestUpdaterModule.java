@@ -0,0 +1,381 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.repository.module;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.query.Query;
+
+import org.apache.commons.lang.StringUtils;
+import org.hippoecm.repository.util.RepoUtils;
+import org.onehippo.cms7.event.HippoEvent;
+import org.onehippo.cms7.services.HippoServiceRegistry;
+import org.onehippo.cms7.services.eventbus.HippoEventBus;
+import org.onehippo.cms7.services.eventbus.Subscribe;
+import org.onehippo.repository.events.HippoWorkflowEvent;
+import org.onehippo.repository.modules.DaemonModule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link DaemonModule} implementation which registers a {@link HippoEvent} listener
+ * in its {@link #initialize(Session)} method, in order to store a denormalized manifest of the images
+ * embedded in the rich text content field on the published variant whenever a document is published.
+ * <p>
+ * Images embedded through the custom CKEditor image picker are stored as {@code hippo:facetselect} child nodes
+ * of the {@code hippostd:html} node, so the site would have to resolve each docbase at rendering time.
+ * Instead, this module resolves them once at publication time and stores one compact entry per embedded image
+ * in the multiple string property, {@code customgallerypickerdemo:imagemanifest}, of the published variant node:
+ * </p>
+ * <pre>
+ * &lt;link node name&gt;|&lt;image handle identifier&gt;|&lt;image handle path&gt;|&lt;original width&gt;|&lt;original height&gt;
+ * </pre>
+ * <p>
+ * e.g, "coffee.jpg|0a1b2c3d-...|/content/gallery/customgallerypickerdemo/news/2015/04/the-medusa-news/coffee.jpg|150|99".
+ * </p>
+ * <p>
+ * Whenever a binary folder is moved along with its document, <code>BinaryPathUpdaterModule</code> and
+ * <code>BulkReorganizer</code> rewrite the stored paths under the moved folder in all the image manifests
+ * by {@link #relocateImageManifests(Session, String, String)} in the same save as the move,
+ * so the site uses the stored paths and dimensions as they are, without reading the repository.
+ * An image moved or renamed in the gallery itself is corrected by the next publication.
+ * </p>
+ */
+public class ImageManifestUpdaterModule implements DaemonModule {
+
+    private static Logger log = LoggerFactory.getLogger(ImageManifestUpdaterModule.class);
+
+    /**
+     * Rich text content field node name of which embedded images are put in the manifest.
+     */
+    public static final String CONTENT_NODE_NAME = "customgallerypickerdemo:content";
+
+    /**
+     * Image manifest property name on the published variant node.
+     */
+    public static final String IMAGE_MANIFEST_PROP_NAME = "customgallerypickerdemo:imagemanifest";
+
+    /**
+     * Separator between the fields of each image manifest entry.
+     */
+    public static final char IMAGE_MANIFEST_FIELD_SEPARATOR = '|';
+
+    /**
+     * System JCR Session which is given by the Hippo Repository Engine on initialization.
+     */
+    private Session session;
+
+    /**
+     * Hippo Document Publication Event Listener instance.
+     */
+    private HippoDocumentPublishEventListener documentPublishEventListener;
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This method stores the given {@code session} to use it when making changes on repository later
+     * and registers the document publication event listener to {@link HippoEventBus}.
+     * </p>
+     */
+    @Override
+    public void initialize(Session session) throws RepositoryException {
+        this.session = session;
+
+        documentPublishEventListener = new HippoDocumentPublishEventListener();
+        HippoServiceRegistry.registerService(documentPublishEventListener, HippoEventBus.class);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This method unregisters the document publication event listener from {@link HippoEventBus}.
+     * </p>
+     */
+    @Override
+    public void shutdown() {
+        if (documentPublishEventListener != null) {
+            HippoServiceRegistry.unregisterService(documentPublishEventListener, HippoEventBus.class);
+        }
+    }
+
+    /**
+     * Handles document publication hippo event.
+     * @param documentHandleNode document handle node
+     */
+    private void handleDocumentPublishHippoEvent(final Node documentHandleNode) {
+        try {
+            final Node publishedVariantNode = getPublishedVariantNode(documentHandleNode);
+
+            if (publishedVariantNode == null) {
+                log.debug("No published variant found under '{}'.", documentHandleNode.getPath());
+                return;
+            }
+
+            if (!publishedVariantNode.hasNode(CONTENT_NODE_NAME)) {
+                if (publishedVariantNode.hasProperty(IMAGE_MANIFEST_PROP_NAME)) {
+                    publishedVariantNode.getProperty(IMAGE_MANIFEST_PROP_NAME).remove();
+                    session.save();
+                }
+                return;
+            }
+
+            final String [] manifest = createImageManifest(session, publishedVariantNode.getNode(CONTENT_NODE_NAME));
+            publishedVariantNode.setProperty(IMAGE_MANIFEST_PROP_NAME, manifest);
+            session.save();
+            log.debug("Stored image manifest with {} entries at '{}'.", manifest.length, publishedVariantNode.getPath());
+        } catch (RepositoryException e) {
+            log.error("Repository exception while storing the image manifest on the published variant.", e);
+        } finally {
+            try {
+                session.refresh(false);
+            } catch (RepositoryException re) {
+                log.error("Failed to refresh the session.", re);
+            }
+        }
+    }
+
+    /**
+     * Creates image manifest entries by resolving all the {@code hippo:facetselect} child nodes of {@code htmlNode}
+     * which are pointing to an image set handle under /content/gallery/.
+     * @param session JCR session to resolve the docbases with
+     * @param htmlNode {@code hippostd:html} node
+     * @return image manifest entries
+     * @throws RepositoryException repository exception
+     */
+    static String [] createImageManifest(final Session session, final Node htmlNode) throws RepositoryException {
+        final List<String> entries = new ArrayList<String>();
+        Node linkNode;
+        String docbaseUuid;
+        Node imageHandleNode;
+
+        for (NodeIterator nodeIt = htmlNode.getNodes(); nodeIt.hasNext(); ) {
+            linkNode = nodeIt.nextNode();
+
+            if (linkNode == null || !linkNode.isNodeType("hippo:facetselect") || !linkNode.hasProperty("hippo:docbase")) {
+                continue;
+            }
+
+            docbaseUuid = linkNode.getProperty("hippo:docbase").getString();
+
+            try {
+                imageHandleNode = session.getNodeByIdentifier(docbaseUuid);
+
+                if (imageHandleNode.isNodeType("hippo:handle") && StringUtils.startsWith(imageHandleNode.getPath(), "/content/gallery/")) {
+                    entries.add(createImageManifestEntry(linkNode.getName(), imageHandleNode));
+                }
+            } catch (ItemNotFoundException infe) {
+                log.warn("Cannot find the image handle node by docbase: {}", docbaseUuid);
+            }
+        }
+
+        return entries.toArray(new String[entries.size()]);
+    }
+
+    /**
+     * Creates an image manifest entry.
+     * @param linkName {@code hippo:facetselect} link node name referred by the image tag in the rich text content
+     * @param imageHandleNode image set handle node
+     * @return image manifest entry
+     * @throws RepositoryException repository exception
+     */
+    private static String createImageManifestEntry(final String linkName, final Node imageHandleNode) throws RepositoryException {
+        long width = 0L;
+        long height = 0L;
+
+        final String originalRelPath = imageHandleNode.getName() + "/hippogallery:original";
+
+        if (imageHandleNode.hasNode(originalRelPath)) {
+            final Node originalNode = imageHandleNode.getNode(originalRelPath);
+
+            if (originalNode.hasProperty("hippogallery:width")) {
+                width = originalNode.getProperty("hippogallery:width").getLong();
+            }
+            if (originalNode.hasProperty("hippogallery:height")) {
+                height = originalNode.getProperty("hippogallery:height").getLong();
+            }
+        }
+
+        return new StringBuilder(linkName.length() + 128)
+            .append(linkName).append(IMAGE_MANIFEST_FIELD_SEPARATOR)
+            .append(imageHandleNode.getIdentifier()).append(IMAGE_MANIFEST_FIELD_SEPARATOR)
+            .append(imageHandleNode.getPath()).append(IMAGE_MANIFEST_FIELD_SEPARATOR)
+            .append(width).append(IMAGE_MANIFEST_FIELD_SEPARATOR)
+            .append(height).toString();
+    }
+
+    /**
+     * Rewrites the image handle paths under {@code oldFolderPath} to be under {@code newFolderPath} instead
+     * in all the image manifests having any, e.g. after a binary folder is moved. Any published document may embed
+     * the images of another document, so this finds the manifests by a query rather than by the moved document.
+     * The changes are not saved.
+     * @param session JCR session
+     * @param oldFolderPath old binary folder path
+     * @param newFolderPath new binary folder path
+     * @return the number of the image manifests changed
+     * @throws RepositoryException repository exception
+     */
+    public static int relocateImageManifests(final Session session, final String oldFolderPath, final String newFolderPath)
+            throws RepositoryException {
+        final String statement = "/jcr:root/content/documents//element(*,hippo:document)[jcr:like(@"
+                + IMAGE_MANIFEST_PROP_NAME + ", '" + createManifestPathPattern(oldFolderPath) + "')]";
+        final Query query = session.getWorkspace().getQueryManager().createQuery(RepoUtils.encodeXpath(statement), Query.XPATH);
+        int changed = 0;
+        Node variantNode;
+
+        for (NodeIterator nodeIt = query.execute().getNodes(); nodeIt.hasNext(); ) {
+            variantNode = nodeIt.nextNode();
+
+            if (variantNode != null && relocateImageManifestEntries(variantNode, oldFolderPath, newFolderPath)) {
+                changed++;
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Rewrites the image handle paths at or under {@code oldFolderPath} in the image manifest of the variant
+     * to be under {@code newFolderPath} instead. The change is not saved.
+     * @param publishedVariantNode published variant node
+     * @param oldFolderPath old binary folder path
+     * @param newFolderPath new binary folder path
+     * @return true if the image manifest was changed
+     * @throws RepositoryException repository exception
+     */
+    static boolean relocateImageManifestEntries(final Node publishedVariantNode, final String oldFolderPath,
+            final String newFolderPath) throws RepositoryException {
+        if (!publishedVariantNode.hasProperty(IMAGE_MANIFEST_PROP_NAME)) {
+            return false;
+        }
+
+        final Value [] values = publishedVariantNode.getProperty(IMAGE_MANIFEST_PROP_NAME).getValues();
+        final String [] manifest = new String[values.length];
+        boolean changed = false;
+        String [] fields;
+
+        for (int i = 0; i < values.length; i++) {
+            manifest[i] = values[i].getString();
+            fields = StringUtils.splitPreserveAllTokens(manifest[i], IMAGE_MANIFEST_FIELD_SEPARATOR);
+
+            // the path field is the only one starting with a slash, in both the current and the old entry formats
+            for (int j = 1; j < fields.length; j++) {
+                if (StringUtils.equals(fields[j], oldFolderPath) || StringUtils.startsWith(fields[j], oldFolderPath + "/")) {
+                    fields[j] = newFolderPath + fields[j].substring(oldFolderPath.length());
+                    manifest[i] = StringUtils.join(fields, IMAGE_MANIFEST_FIELD_SEPARATOR);
+                    changed = true;
+                    break;
+                }
+            }
+        }
+
+        if (changed) {
+            publishedVariantNode.setProperty(IMAGE_MANIFEST_PROP_NAME, manifest);
+        }
+
+        return changed;
+    }
+
+    /**
+     * Creates the <code>jcr:like</code> pattern matching the manifest entries having an image handle path
+     * under {@code folderPath}, escaping the pattern characters and the quotes in the path.
+     * @param folderPath binary folder path
+     * @return <code>jcr:like</code> pattern
+     */
+    static String createManifestPathPattern(final String folderPath) {
+        final StringBuilder sb = new StringBuilder(folderPath.length() + 8).append('%').append(IMAGE_MANIFEST_FIELD_SEPARATOR);
+        char c;
+
+        for (int i = 0; i < folderPath.length(); i++) {
+            c = folderPath.charAt(i);
+
+            if (c == '%' || c == '_' || c == '\\') {
+                sb.append('\\');
+            } else if (c == '\'') {
+                sb.append('\'');
+            }
+
+            sb.append(c);
+        }
+
+        return sb.append("/%").toString();
+    }
+
+    /**
+     * Finds the published variant node under the document handle node.
+     * @param documentHandleNode document handle node
+     * @return the published variant node or null if not found
+     * @throws RepositoryException repository exception
+     */
+    private static Node getPublishedVariantNode(final Node documentHandleNode) throws RepositoryException {
+        Node variantNode;
+
+        for (NodeIterator nodeIt = documentHandleNode.getNodes(documentHandleNode.getName()); nodeIt.hasNext(); ) {
+            variantNode = nodeIt.nextNode();
+
+            if (variantNode != null && variantNode.hasProperty("hippostd:state")
+                    && "published".equals(variantNode.getProperty("hippostd:state").getString())) {
+                return variantNode;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * {@link HippoEventBus} event listener subscribing {@link HippoEvent}.
+     * <p>
+     * This handles the event only when the category of the {@link HippoEvent} is 'workflow'
+     * and the action of the event is 'publish'.
+     * </p>
+     */
+    public class HippoDocumentPublishEventListener {
+
+        @Subscribe
+        public void handleEvent(HippoEvent<?> event) {
+            if ("workflow".equals(event.category()) && "publish".equals(event.action())) {
+                try {
+                    String subjectPath = ((HippoWorkflowEvent) event).subjectPath();
+
+                    if (!StringUtils.startsWith(subjectPath, "/content/documents/")) {
+                        log.debug("Ignoring hippo event on '{}' because it's not under '/content/documents/'.", subjectPath);
+                        return;
+                    }
+
+                    String subjectId = ((HippoWorkflowEvent) event).subjectId();
+                    Node subjectNode = session.getNodeByIdentifier(subjectId);
+
+                    if (!subjectNode.isNodeType("hippo:handle") && subjectNode.getParent().isNodeType("hippo:handle")) {
+                        subjectNode = subjectNode.getParent();
+                    }
+
+                    if (subjectNode.isNodeType("hippo:handle")) {
+                        handleDocumentPublishHippoEvent(subjectNode);
+                    }
+                } catch (RepositoryException e) {
+                    log.error("Repository exception while handling publish workflow event.", e);
+                }
+            }
+        }
+
+    }
+}
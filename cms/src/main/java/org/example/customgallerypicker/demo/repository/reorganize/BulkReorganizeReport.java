@@ -0,0 +1,135 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.repository.reorganize;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Progress counters and throughput of a {@link BulkReorganizer} run.
+ */
+public class BulkReorganizeReport {
+
+    /**
+     * Maximum number of skip and failure messages kept in the report.
+     */
+    private static final int MAX_MESSAGES = 1000;
+
+    private final long startTime = System.currentTimeMillis();
+
+    private long endTime;
+
+    private int planned;
+
+    private int documents;
+
+    private int galleries;
+
+    private int skipped;
+
+    private int failed;
+
+    private int saves;
+
+    private final List<String> messages = new ArrayList<String>();
+
+    void planned(final int count) {
+        planned = count;
+    }
+
+    void documentMoved(final boolean galleryMoved) {
+        documents++;
+
+        if (galleryMoved) {
+            galleries++;
+        }
+    }
+
+    void moveSkipped(final DocumentMove move, final String reason) {
+        skipped++;
+        addMessage("skipped " + move + ": " + reason);
+    }
+
+    void moveFailed(final DocumentMove move, final String reason) {
+        failed++;
+        addMessage("failed " + move + ": " + reason);
+    }
+
+    void aborted(final String reason) {
+        // always kept, even if the message list is full
+        messages.add("aborted: " + reason);
+    }
+
+    void saved() {
+        saves++;
+    }
+
+    void finish() {
+        endTime = System.currentTimeMillis();
+    }
+
+    public int getPlanned() {
+        return planned;
+    }
+
+    public int getDocuments() {
+        return documents;
+    }
+
+    public int getGalleries() {
+        return galleries;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public int getSaves() {
+        return saves;
+    }
+
+    /**
+     * Returns the skip, failure and abort messages, up to the first 1000.
+     * @return the skip, failure and abort messages
+     */
+    public List<String> getMessages() {
+        return Collections.unmodifiableList(messages);
+    }
+
+    public long getElapsedMillis() {
+        return (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+    }
+
+    @Override
+    public String toString() {
+        final double seconds = Math.max(getElapsedMillis(), 1L) / 1000.0;
+        return String.format(Locale.ROOT, "planned=%d, documents=%d, galleries=%d, skipped=%d, failed=%d, saves=%d, "
+                + "elapsed=%.1fs, throughput=%.1f documents/s",
+                planned, documents, galleries, skipped, failed, saves, seconds, documents / seconds);
+    }
+
+    private void addMessage(final String message) {
+        if (messages.size() < MAX_MESSAGES) {
+            messages.add(message);
+        }
+    }
+}
@@ -0,0 +1,443 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.repository.reorganize;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.jcr.ItemExistsException;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.commons.lang.StringUtils;
+import org.example.customgallerypicker.demo.repository.cluster.RepositoryLease;
+import org.example.customgallerypicker.demo.repository.module.ImageManifestUpdaterModule;
+import org.example.customgallerypicker.demo.repository.trace.OperationTrace;
+import org.example.customgallerypicker.demo.repository.util.BinaryFolderUtils;
+import org.onehippo.cms7.services.HippoServiceRegistry;
+import org.onehippo.cms7.services.eventbus.HippoEventBus;
+import org.onehippo.repository.events.HippoWorkflowEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves many document handles into other folders together with their co-located binary folders,
+ * in a few batched saves instead of a workflow move, a folder creation save and a binary folder move save per document.
+ * <p>
+ * The moves are planned first: the moves whose source is not a document handle, whose target folder doesn't exist,
+ * whose target or target binary folder already exists, whose target is already the target of another move,
+ * or whose document is being edited or has pending requests are skipped. The remaining moves are sorted by target folder, so the binary folders
+ * shared by the moves into the same target folder are created only once, in the same batch.
+ * </p>
+ * <p>
+ * Each batch of <code>batchSize</code> moves (default 100) moves the document handles, provisions the target
+ * binary folders, moves the binary folders and fixes their mixins, and commits all of it in a single save.
+ * If the save of a batch fails (e.g. because of a concurrent change), the batch is discarded and its moves are
+ * applied again one by one, so a single conflicting move doesn't fail the whole batch.
+ * </p>
+ * <p>
+ * If a {@link RepositoryLease} is set, it is renewed along the moves, whenever a third of its time to live has passed,
+ * and the run stops as soon as it cannot be renewed, discarding the unsaved moves of the current batch,
+ * so only one bulk reorganization runs across the cluster at a time however long a batch takes.
+ * </p>
+ * <p>
+ * As the moves don't go through the document workflow, the stores kept up to date by workflow events are updated
+ * here instead: the image manifest entries under the moved binary folder are relocated in the same save,
+ * and a 'move' workflow event marked with {@link #BULK_REORGANIZE_EVENT_ATTR} is posted to {@link HippoEventBus}
+ * for each moved document once saved, so the move is recorded in the repository audit log.
+ * <code>BinaryPathUpdaterModule</code> ignores the marked events, as the binary folders are moved already.
+ * The content hash index needs no update, as it is keyed by the image set handle identifiers which don't change.
+ * </p>
+ */
+public class BulkReorganizer {
+
+    private static Logger log = LoggerFactory.getLogger(BulkReorganizer.class);
+
+    /**
+     * Attribute set to true on the workflow events posted for the bulk moves.
+     */
+    public static final String BULK_REORGANIZE_EVENT_ATTR = "bulkReorganize";
+
+    /**
+     * Listener notified of the progress after each batch.
+     */
+    public interface ProgressListener {
+
+        /**
+         * Called after each batch is applied.
+         * @param report the report of the run so far
+         */
+        void batchApplied(BulkReorganizeReport report);
+
+    }
+
+    private final Session session;
+
+    private int batchSize = 100;
+
+    private boolean dryRun;
+
+    private ProgressListener progressListener;
+
+    private RepositoryLease lease;
+
+    /**
+     * Whether the lease could not be renewed during the current run.
+     */
+    private boolean leaseLost;
+
+    /**
+     * Relative paths of the target folders whose binary folders were provisioned in the current batch.
+     */
+    private final Set<String> provisionedFolderRelPaths = new HashSet<String>();
+
+    public BulkReorganizer(final Session session) {
+        this.session = session;
+    }
+
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Sets whether only the plan is made, without moving anything.
+     * @param dryRun whether only the plan is made
+     */
+    public void setDryRun(final boolean dryRun) {
+        this.dryRun = dryRun;
+    }
+
+    public void setProgressListener(final ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Sets the cluster wide lease which must be held while applying the moves. The caller acquires and releases it.
+     * @param lease cluster wide lease
+     */
+    public void setLease(final RepositoryLease lease) {
+        this.lease = lease;
+    }
+
+    /**
+     * Plans and applies the moves.
+     * @param moves document moves
+     * @return report of the run
+     * @throws RepositoryException repository exception while planning
+     */
+    public BulkReorganizeReport reorganize(final List<DocumentMove> moves) throws RepositoryException {
+        final BulkReorganizeReport report = new BulkReorganizeReport();
+        leaseLost = false;
+
+        try {
+            final List<DocumentMove> plan = plan(moves, report);
+            report.planned(plan.size());
+            log.info("Planned {} document moves out of {}.", plan.size(), moves.size());
+
+            if (!dryRun) {
+                for (int from = 0; from < plan.size(); from += batchSize) {
+                    applyBatch(plan.subList(from, Math.min(from + batchSize, plan.size())), report);
+
+                    if (progressListener != null) {
+                        progressListener.batchApplied(report);
+                    }
+
+                    if (leaseLost) {
+                        log.warn("Stopping the bulk reorganization as the lease cannot be renewed.");
+                        report.aborted("lease lost in the batch of the planned moves from " + from);
+                        break;
+                    }
+                }
+            }
+        } finally {
+            report.finish();
+        }
+
+        log.info("Bulk reorganization done: {}", report);
+        return report;
+    }
+
+    /**
+     * Validates the moves and sorts the valid ones by target folder path.
+     * @param moves document moves
+     * @param report report to record the skipped moves in
+     * @return the moves to apply
+     * @throws RepositoryException repository exception
+     */
+    private List<DocumentMove> plan(final List<DocumentMove> moves, final BulkReorganizeReport report) throws RepositoryException {
+        final List<DocumentMove> plan = new ArrayList<DocumentMove>(moves.size());
+        final Set<String> sourcePaths = new HashSet<String>();
+        final Set<String> targetPaths = new HashSet<String>();
+
+        for (DocumentMove move : moves) {
+            final String reason = validate(move, sourcePaths, targetPaths);
+
+            if (reason != null) {
+                log.info("Skipping the move {}: {}", move, reason);
+                report.moveSkipped(move, reason);
+            } else {
+                sourcePaths.add(move.getSourcePath());
+                targetPaths.add(move.getTargetPath());
+                plan.add(move);
+            }
+        }
+
+        Collections.sort(plan, new Comparator<DocumentMove>() {
+            @Override
+            public int compare(DocumentMove move1, DocumentMove move2) {
+                return move1.getTargetFolderPath().compareTo(move2.getTargetFolderPath());
+            }
+        });
+
+        return plan;
+    }
+
+    /**
+     * Returns the reason why the move cannot be applied, or null if it can.
+     */
+    private String validate(final DocumentMove move, final Set<String> sourcePaths, final Set<String> targetPaths)
+            throws RepositoryException {
+        final String sourcePath = move.getSourcePath();
+        final String targetFolderPath = move.getTargetFolderPath();
+
+        if (!StringUtils.startsWith(sourcePath, BinaryFolderUtils.DOCUMENTS_ROOT_PATH + "/")
+                || !StringUtils.startsWith(targetFolderPath + "/", BinaryFolderUtils.DOCUMENTS_ROOT_PATH + "/")) {
+            return "not under " + BinaryFolderUtils.DOCUMENTS_ROOT_PATH;
+        }
+
+        if (sourcePaths.contains(sourcePath)) {
+            return "duplicate source";
+        }
+
+        if (!session.nodeExists(sourcePath) || !session.getNode(sourcePath).isNodeType("hippo:handle")) {
+            return "source document handle not found";
+        }
+
+        if (!session.nodeExists(targetFolderPath) || !session.getNode(targetFolderPath).isNodeType("hippostd:folder")) {
+            return "target folder not found";
+        }
+
+        if (StringUtils.equals(StringUtils.substringBeforeLast(sourcePath, "/"), targetFolderPath)) {
+            return "already in the target folder";
+        }
+
+        if (targetPaths.contains(move.getTargetPath()) || session.nodeExists(move.getTargetPath())) {
+            return "target already exists";
+        }
+
+        if (session.nodeExists(move.getSourceBinaryFolderPath()) && session.nodeExists(move.getTargetBinaryFolderPath())) {
+            return "target binary folder already exists";
+        }
+
+        if (isInUse(session.getNode(sourcePath))) {
+            return "document is being edited or has pending requests";
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns true if a variant of the document is held by an editor or the document has a pending request,
+     * in which case the document workflow wouldn't allow the move either.
+     */
+    private boolean isInUse(final Node handleNode) throws RepositoryException {
+        Node childNode;
+
+        for (NodeIterator nodeIt = handleNode.getNodes(); nodeIt.hasNext(); ) {
+            childNode = nodeIt.nextNode();
+
+            if (childNode != null && (childNode.isNodeType("hippo:request") || childNode.hasProperty("hippostd:holder"))) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Applies a batch of moves in a single save, or one by one if the batch save fails.
+     * Nothing more is applied once the lease cannot be renewed.
+     * @param batch batch of moves
+     * @param report report
+     */
+    private void applyBatch(final List<DocumentMove> batch, final BulkReorganizeReport report) {
+        final OperationTrace trace = OperationTrace.begin("reorganize.batch", batch.get(0).toString());
+        final List<Boolean> galleryMoves = new ArrayList<Boolean>(batch.size());
+
+        try {
+            for (DocumentMove move : batch) {
+                if (!renewLease()) {
+                    return;
+                }
+
+                galleryMoves.add(apply(move));
+            }
+
+            if (!renewLease()) {
+                return;
+            }
+
+            save(report);
+
+            for (int i = 0; i < batch.size(); i++) {
+                report.documentMoved(galleryMoves.get(i));
+                postMoveEvent(batch.get(i));
+            }
+        } catch (RepositoryException e) {
+            log.warn("Failed to apply the batch of {} moves at once, applying them one by one: {}", batch.size(), e.toString());
+            discard();
+
+            for (DocumentMove move : batch) {
+                if (!renewLease()) {
+                    break;
+                }
+
+                applySingle(move, report);
+            }
+        } finally {
+            discard();
+            trace.end();
+        }
+    }
+
+    private void applySingle(final DocumentMove move, final BulkReorganizeReport report) {
+        try {
+            final boolean galleryMoved = apply(move);
+            save(report);
+            report.documentMoved(galleryMoved);
+            postMoveEvent(move);
+        } catch (RepositoryException e) {
+            log.error("Failed to move " + move + ".", e);
+            report.moveFailed(move, e.toString());
+        } finally {
+            discard();
+        }
+    }
+
+    /**
+     * Renews the lease if due, remembering if it cannot be renewed.
+     * @return true if no lease is set or it is still held
+     */
+    private boolean renewLease() {
+        if (lease != null && !leaseLost && !lease.renewIfDue()) {
+            leaseLost = true;
+        }
+
+        return !leaseLost;
+    }
+
+    /**
+     * Moves the document handle and its binary folder, and relocates the image manifest, without saving.
+     * @param move document move
+     * @return true if the binary folder was moved as well
+     * @throws RepositoryException repository exception, or {@link ItemExistsException} if the target binary folder
+     *         exists already, not to leave the images behind the moved document
+     */
+    private boolean apply(final DocumentMove move) throws RepositoryException {
+        long startNanos = System.nanoTime();
+        session.move(move.getSourcePath(), move.getTargetPath());
+        OperationTrace.record(OperationTrace.MOVE, startNanos);
+
+        final String sourceBinaryFolderPath = move.getSourceBinaryFolderPath();
+        final String targetBinaryFolderPath = move.getTargetBinaryFolderPath();
+
+        if (!session.nodeExists(sourceBinaryFolderPath)) {
+            return false;
+        }
+
+        if (provisionedFolderRelPaths.add(move.getTargetFolderRelPath())) {
+            startNanos = System.nanoTime();
+            BinaryFolderUtils.createBinaryFoldersIfNotExisting(session, move.getTargetFolderRelPath());
+            OperationTrace.record(OperationTrace.CREATE_FOLDERS, startNanos);
+        }
+
+        if (session.nodeExists(targetBinaryFolderPath)) {
+            throw new ItemExistsException("Target binary folder already exists: " + targetBinaryFolderPath);
+        }
+
+        startNanos = System.nanoTime();
+        session.move(sourceBinaryFolderPath, targetBinaryFolderPath);
+        OperationTrace.record(OperationTrace.MOVE, startNanos);
+
+        final Node binaryFolderNode = session.getNode(targetBinaryFolderPath);
+
+        if (!binaryFolderNode.isNodeType("mix:referenceable")) {
+            binaryFolderNode.addMixin("mix:referenceable");
+        }
+        if (!binaryFolderNode.isNodeType("hippo:translated")) {
+            binaryFolderNode.addMixin("hippo:translated");
+        }
+
+        ImageManifestUpdaterModule.relocateImageManifests(session, sourceBinaryFolderPath, targetBinaryFolderPath);
+
+        return true;
+    }
+
+    /**
+     * Posts a 'move' workflow event of the saved move to {@link HippoEventBus}, marked with {@link #BULK_REORGANIZE_EVENT_ATTR}.
+     * @param move saved document move
+     */
+    private void postMoveEvent(final DocumentMove move) {
+        final HippoEventBus eventBus = HippoServiceRegistry.getService(HippoEventBus.class);
+
+        if (eventBus == null) {
+            return;
+        }
+
+        try {
+            final HippoWorkflowEvent event = new HippoWorkflowEvent();
+            event.category("workflow");
+            event.action("move");
+            event.user(session.getUserID());
+            event.subjectId(session.getNode(move.getTargetPath()).getIdentifier());
+            event.subjectPath(move.getSourcePath());
+            event.arguments(Arrays.asList(move.getTargetFolderPath(), StringUtils.substringAfterLast(move.getTargetPath(), "/")));
+            event.message("bulk reorganize");
+            event.set(BULK_REORGANIZE_EVENT_ATTR, Boolean.TRUE);
+            eventBus.post(event);
+        } catch (RepositoryException e) {
+            log.warn("Cannot post the move event of {}: {}", move, e.toString());
+        }
+    }
+
+    private void save(final BulkReorganizeReport report) throws RepositoryException {
+        final long startNanos = System.nanoTime();
+        session.save();
+        OperationTrace.record(OperationTrace.SAVE, startNanos);
+        report.saved();
+    }
+
+    /**
+     * Discards the pending changes, if any, and forgets the provisioned binary folders
+     * as they may have been discarded.
+     */
+    private void discard() {
+        provisionedFolderRelPaths.clear();
+
+        try {
+            session.refresh(false);
+        } catch (RepositoryException re) {
+            log.error("Failed to refresh the session.", re);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.repository.reorganize;
+
+import org.apache.commons.lang.StringUtils;
+import org.example.customgallerypicker.demo.repository.util.BinaryFolderUtils;
+
+/**
+ * A document handle move from its source path into a target folder, with the move of the binary folder
+ * co-located with the document handle.
+ */
+public class DocumentMove {
+
+    private final String sourcePath;
+
+    private final String targetFolderPath;
+
+    /**
+     * Constructor.
+     * @param sourcePath source document handle path, absolute or relative to the documents root folder
+     * @param targetFolderPath target document folder path, absolute or relative to the documents root folder
+     */
+    public DocumentMove(final String sourcePath, final String targetFolderPath) {
+        this.sourcePath = toAbsoluteDocumentPath(sourcePath);
+        this.targetFolderPath = toAbsoluteDocumentPath(targetFolderPath);
+    }
+
+    public String getSourcePath() {
+        return sourcePath;
+    }
+
+    public String getTargetFolderPath() {
+        return targetFolderPath;
+    }
+
+    public String getTargetPath() {
+        return targetFolderPath + "/" + StringUtils.substringAfterLast(sourcePath, "/");
+    }
+
+    public String getSourceBinaryFolderPath() {
+        return BinaryFolderUtils.getBinaryFolderPath(sourcePath);
+    }
+
+    public String getTargetBinaryFolderPath() {
+        return BinaryFolderUtils.getBinaryFolderPath(getTargetPath());
+    }
+
+    /**
+     * Returns the target folder path relative to the documents root folder, which is also the path
+     * of the parent folder of the target binary folder relative to the gallery root folder.
+     * @return the target folder path relative to the documents root folder
+     */
+    public String getTargetFolderRelPath() {
+        return BinaryFolderUtils.getDocumentRelPath(targetFolderPath);
+    }
+
+    @Override
+    public String toString() {
+        return sourcePath + " -> " + targetFolderPath;
+    }
+
+    private static String toAbsoluteDocumentPath(final String path) {
+        final String trimmed = StringUtils.removeEnd(StringUtils.trim(path), "/");
+
+        if (StringUtils.startsWith(trimmed, "/")) {
+            return trimmed;
+        }
+
+        return BinaryFolderUtils.DOCUMENTS_ROOT_PATH + "/" + trimmed;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.repository.trace;
+
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lightweight per-thread trace of an operation, recording the time spent in each phase
+ * (XPath query, <code>getNodeByIdentifier</code>, <code>session.move</code>, <code>session.save</code>, translation copy, ...).
+ * <p>
+ * An operation is traced from {@link #begin(String, String)} to {@link #end()} on the same thread,
+ * and any code running in between records its phases with {@link #record(String, long)} without having to
+ * pass the trace around. Recording is a no-op if no operation is traced on the current thread.
+ * Phases may nest (e.g. the translation copy while creating folders), so their times are not meant to add up.
+ * </p>
+ * <p>
+ * An operation taking at least <code>gallery.slowop.threshold.ms</code> milliseconds (system property, default 500)
+ * is written as a single <code>key=value</code> line to the {@link #SLOW_OPERATION_LOGGER} logger,
+ * which is routed to a dedicated rotating log file in the log4j configuration, e.g.:
+ * </p>
+ * <pre>
+ * operation=sync.rename subject="/content/documents/news/2015" total.ms=812.4 query.ms=640.1 query.count=1 move.ms=12.0 move.count=3 save.ms=150.2 save.count=1
+ * </pre>
+ * <p>
+ * Below the threshold, the overhead is a thread local lookup and a {@link System#nanoTime()} call per phase.
+ * </p>
+ */
+public class OperationTrace {
+
+    /**
+     * Dedicated logger name of the slow operations.
+     */
+    public static final String SLOW_OPERATION_LOGGER = "org.example.customgallerypicker.demo.slowops";
+
+    /**
+     * System property name of the slow operation threshold in milliseconds.
+     */
+    public static final String THRESHOLD_PROP = "gallery.slowop.threshold.ms";
+
+    public static final String QUERY = "query";
+
+    public static final String GET_NODE_BY_IDENTIFIER = "getNodeByIdentifier";
+
+    public static final String CREATE_FOLDERS = "createFolders";
+
+    public static final String MOVE = "move";
+
+    public static final String SAVE = "save";
+
+    public static final String TRANSLATION_COPY = "translationCopy";
+
+    private static final int MAX_PHASES = 8;
+
+    private static Logger slowOperationLog = LoggerFactory.getLogger(SLOW_OPERATION_LOGGER);
+
+    private static final long THRESHOLD_NANOS = Long.getLong(THRESHOLD_PROP, 500L) * 1000000L;
+
+    private static final ThreadLocal<OperationTrace> CURRENT = new ThreadLocal<OperationTrace>();
+
+    private final String operation;
+
+    private final String subject;
+
+    private final long startNanos = System.nanoTime();
+
+    private final String [] phaseNames = new String[MAX_PHASES];
+
+    private final long [] phaseNanos = new long[MAX_PHASES];
+
+    private final int [] phaseCounts = new int[MAX_PHASES];
+
+    private int phases;
+
+    private OperationTrace(final String operation, final String subject) {
+        this.operation = operation;
+        this.subject = subject;
+    }
+
+    /**
+     * Starts tracing the operation on the current thread, replacing any unfinished trace.
+     * @param operation operation name
+     * @param subject subject of the operation, e.g. a node path
+     * @return the operation trace, to be {@link #end() ended} in a finally block
+     */
+    public static OperationTrace begin(final String operation, final String subject) {
+        final OperationTrace trace = new OperationTrace(operation, subject);
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    /**
+     * Records the time elapsed since {@code startNanos} in the phase of the operation traced on the current thread, if any.
+     * @param phase phase name
+     * @param startNanos start time of the phase from {@link System#nanoTime()}
+     */
+    public static void record(final String phase, final long startNanos) {
+        final OperationTrace trace = CURRENT.get();
+
+        if (trace != null) {
+            trace.add(phase, System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Ends tracing the operation, and logs it if it took at least the threshold.
+     */
+    public void end() {
+        final long totalNanos = System.nanoTime() - startNanos;
+
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+
+        if (totalNanos >= THRESHOLD_NANOS && slowOperationLog.isInfoEnabled()) {
+            slowOperationLog.info(format(totalNanos));
+        }
+    }
+
+    private void add(final String phase, final long nanos) {
+        for (int i = 0; i < phases; i++) {
+            if (phaseNames[i].equals(phase)) {
+                phaseNanos[i] += nanos;
+                phaseCounts[i]++;
+                return;
+            }
+        }
+
+        if (phases < MAX_PHASES) {
+            phaseNames[phases] = phase;
+            phaseNanos[phases] = nanos;
+            phaseCounts[phases] = 1;
+            phases++;
+        }
+    }
+
+    private String format(final long totalNanos) {
+        final StringBuilder sb = new StringBuilder(256);
+        sb.append("operation=").append(operation);
+        sb.append(" subject=\"").append(subject).append('"');
+        sb.append(" total.ms=").append(toMillis(totalNanos));
+
+        for (int i = 0; i < phases; i++) {
+            sb.append(' ').append(phaseNames[i]).append(".ms=").append(toMillis(phaseNanos[i]));
+            sb.append(' ').append(phaseNames[i]).append(".count=").append(phaseCounts[i]);
+        }
+
+        return sb.toString();
+    }
+
+    private static String toMillis(final long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1000000.0);
+    }
+}
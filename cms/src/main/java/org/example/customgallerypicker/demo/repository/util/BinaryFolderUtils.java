@@ -0,0 +1,221 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.repository.util;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.commons.lang.StringUtils;
+import org.example.customgallerypicker.demo.repository.trace.OperationTrace;
+
+/**
+ * Utilities to determine and provision the binary (gallery) folder of a document,
+ * following the same convention as <code>BinaryPathDeterminingPluginConfig</code>:
+ * the images of the document at "/content/documents/a/b/doc" are stored in "/content/gallery/a/b/doc/".
+ */
+public class BinaryFolderUtils {
+
+    /**
+     * Documents root folder path.
+     */
+    public static final String DOCUMENTS_ROOT_PATH = "/content/documents";
+
+    /**
+     * Gallery root folder path.
+     */
+    public static final String GALLERY_ROOT_PATH = "/content/gallery";
+
+    /**
+     * Default property value of {@code hippostd:foldertype} of {@code hippogallery:stdImageGallery}.
+     */
+    public static final String [] GALLERY_NODE_FOLDER_TYPES = { "new-image-folder" };
+
+    /**
+     * Default property value of {@code hippostd:gallerytype} of {@code hippogallery:stdImageGallery}.
+     */
+    public static final String [] GALLERY_NODE_GALLERY_TYPES = { "hippogallery:imageset" };
+
+    private BinaryFolderUtils() {
+    }
+
+    /**
+     * Returns the path of a document node relative to {@link #DOCUMENTS_ROOT_PATH}, without any same name sibling index.
+     * @param documentPath document handle or folder path
+     * @return the relative path
+     */
+    public static String getDocumentRelPath(final String documentPath) {
+        final String [] names = StringUtils.split(StringUtils.removeStart(documentPath, DOCUMENTS_ROOT_PATH + "/"), "/");
+        final StringBuilder sb = new StringBuilder(documentPath.length());
+
+        for (String name : names) {
+            if (sb.length() > 0) {
+                sb.append('/');
+            }
+            sb.append(StringUtils.substringBefore(name, "["));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns the binary folder path corresponding to the document handle or folder path.
+     * @param documentPath document handle or folder path
+     * @return the binary folder path
+     */
+    public static String getBinaryFolderPath(final String documentPath) {
+        return GALLERY_ROOT_PATH + "/" + getDocumentRelPath(documentPath);
+    }
+
+    /**
+     * Creates the gallery binary folder nodes corresponding to {@code documentRelPath} if not existing,
+     * copying the translations of the corresponding document folder nodes, and returns the deepest binary folder node.
+     * <p>
+     * This method doesn't save the session. The caller is responsible for saving or discarding the changes.
+     * </p>
+     * @param session JCR session
+     * @param documentRelPath document handle or folder path relative to {@link #DOCUMENTS_ROOT_PATH}
+     * @return the deepest binary folder node
+     * @throws RepositoryException repository exception
+     */
+    public static Node createBinaryFoldersIfNotExisting(final Session session, final String documentRelPath) throws RepositoryException {
+        final String [] folderNames = StringUtils.split(documentRelPath, "/");
+
+        Node galleryNode = session.getNode(GALLERY_ROOT_PATH);
+        Node docFolderNode = session.getNode(DOCUMENTS_ROOT_PATH);
+        String folderName;
+
+        for (int i = 0; i < folderNames.length; i++) {
+            folderName = StringUtils.substringBefore(folderNames[i], "[");
+
+            if (docFolderNode != null) {
+                docFolderNode = (docFolderNode.hasNode(folderName) ? docFolderNode.getNode(folderName) : null);
+            }
+
+            if (galleryNode.hasNode(folderName)) {
+                galleryNode = galleryNode.getNode(folderName);
+            } else {
+                galleryNode = addBinaryFolderNode(galleryNode, folderName);
+
+                if (docFolderNode != null) {
+                    final long startNanos = System.nanoTime();
+                    copyTranslationNodes(docFolderNode, galleryNode);
+                    OperationTrace.record(OperationTrace.TRANSLATION_COPY, startNanos);
+                }
+            }
+        }
+
+        return galleryNode;
+    }
+
+    /**
+     * Finds the document handle node of the context node (e.g. an image link or a rich text field node in a document variant),
+     * which is the parent of the nearest {@code hippostdpubwf:document} ancestor-or-self node.
+     * @param contextNode context node
+     * @return the context document handle node, or null if the context node is not in a document
+     * @throws RepositoryException repository exception
+     */
+    public static Node getContextDocumentHandleNode(final Node contextNode) throws RepositoryException {
+        Node curNode = contextNode;
+
+        while (curNode != null && !curNode.isNodeType("hippostdpubwf:document")) {
+            curNode = (curNode.getDepth() > 0 ? curNode.getParent() : null);
+        }
+
+        return (curNode != null ? curNode.getParent() : null);
+    }
+
+    /**
+     * Returns the binary folder node of the document containing the context node, as used as the base folder
+     * of the image pickers, creating and saving the binary folder nodes if not existing.
+     * @param session JCR session
+     * @param contextNode context node (e.g. an image link or a rich text field node in a document variant)
+     * @return the context binary folder node, or null if the context node is not in a document
+     * @throws RepositoryException repository exception, in which case the created binary folders are discarded
+     */
+    public static Node getOrCreateContextBinaryFolderNode(final Session session, final Node contextNode) throws RepositoryException {
+        final Node handleNode = getContextDocumentHandleNode(contextNode);
+
+        if (handleNode == null) {
+            return null;
+        }
+
+        long startNanos = System.nanoTime();
+        final Node binaryFolderNode = createBinaryFoldersIfNotExisting(session, getDocumentRelPath(handleNode.getPath()));
+        OperationTrace.record(OperationTrace.CREATE_FOLDERS, startNanos);
+
+        // save only if any folder was created (the deepest one is new then)
+        if (binaryFolderNode.isNew()) {
+            Node createdNode = binaryFolderNode;
+
+            while (createdNode.getParent().isNew()) {
+                createdNode = createdNode.getParent();
+            }
+
+            final Node parentNode = createdNode.getParent();
+
+            try {
+                startNanos = System.nanoTime();
+                session.save();
+                OperationTrace.record(OperationTrace.SAVE, startNanos);
+            } catch (RepositoryException e) {
+                // discard the created folders only
+                parentNode.refresh(false);
+                throw e;
+            }
+        }
+
+        return binaryFolderNode;
+    }
+
+    /**
+     * Adds a binary folder node (type of 'hippogallery:stdImageGallery') with the needed mixins and properties.
+     * @param parentNode parent binary folder node
+     * @param folderName folder node name
+     * @return the added binary folder node
+     * @throws RepositoryException repository exception
+     */
+    public static Node addBinaryFolderNode(final Node parentNode, final String folderName) throws RepositoryException {
+        final Node galleryNode = parentNode.addNode(folderName, "hippogallery:stdImageGallery");
+        galleryNode.addMixin("mix:referenceable");
+        galleryNode.addMixin("hippo:translated");
+        galleryNode.setProperty("hippostd:foldertype", GALLERY_NODE_FOLDER_TYPES);
+        galleryNode.setProperty("hippostd:gallerytype", GALLERY_NODE_GALLERY_TYPES);
+        return galleryNode;
+    }
+
+    /**
+     * Adds copies of all the hippo:translation nodes of {@code sourceNode} to {@code targetNode}.
+     * @param sourceNode source node
+     * @param targetNode target node
+     * @throws RepositoryException repository exception
+     */
+    private static void copyTranslationNodes(final Node sourceNode, final Node targetNode) throws RepositoryException {
+        Node sourceTranslationNode;
+        Node targetTranslationNode;
+
+        for (NodeIterator nodeIt = sourceNode.getNodes("hippo:translation"); nodeIt.hasNext(); ) {
+            sourceTranslationNode = nodeIt.nextNode();
+
+            if (sourceTranslationNode != null) {
+                targetTranslationNode = targetNode.addNode("hippo:translation", "hippo:translation");
+                targetTranslationNode.setProperty("hippo:language", sourceTranslationNode.getProperty("hippo:language").getString());
+                targetTranslationNode.setProperty("hippo:message", sourceTranslationNode.getProperty("hippo:message").getString());
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.repository.util;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Utilities to scale images into gallery image variants with the standard Java imaging API.
+ */
+public class ImageScalingUtils {
+
+    private ImageScalingUtils() {
+    }
+
+    /**
+     * Scales the {@code source} image to fit in the bounding box while keeping the aspect ratio.
+     * A zero or negative bound means unbounded in that dimension. The image is never upscaled.
+     * @param source source image
+     * @param maxWidth bounding box width
+     * @param maxHeight bounding box height
+     * @param opaque whether the scaled image should be opaque (e.g. for JPEG) or keep the alpha channel
+     * @return scaled image, or the source image itself if no scaling is needed
+     */
+    public static BufferedImage scale(final BufferedImage source, final int maxWidth, final int maxHeight, final boolean opaque) {
+        final int width = source.getWidth();
+        final int height = source.getHeight();
+        double scale = 1.0;
+
+        if (maxWidth > 0) {
+            scale = Math.min(scale, (double) maxWidth / width);
+        }
+        if (maxHeight > 0) {
+            scale = Math.min(scale, (double) maxHeight / height);
+        }
+
+        if (scale >= 1.0) {
+            return source;
+        }
+
+        final int scaledWidth = Math.max(1, (int) Math.round(width * scale));
+        final int scaledHeight = Math.max(1, (int) Math.round(height * scale));
+        final BufferedImage scaled = new BufferedImage(scaledWidth, scaledHeight,
+                opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D g = scaled.createGraphics();
+
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(source, 0, 0, scaledWidth, scaledHeight, null);
+        } finally {
+            g.dispose();
+        }
+
+        return scaled;
+    }
+
+    /**
+     * Encodes the {@code image} in the format of the {@code mimeType} (e.g. "image/jpeg").
+     * @param image image
+     * @param mimeType image mime type
+     * @return encoded image bytes
+     * @throws IOException if the image cannot be encoded in the format
+     */
+    public static byte [] encode(final BufferedImage image, final String mimeType) throws IOException {
+        final String formatName = (isOpaque(mimeType) ? "jpeg" : StringUtils.substringAfter(mimeType, "/"));
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(8192);
+
+        if (!ImageIO.write(image, formatName, baos)) {
+            throw new IOException("No image writer for " + mimeType);
+        }
+
+        return baos.toByteArray();
+    }
+
+    /**
+     * Returns true if the images of the {@code mimeType} have no alpha channel.
+     * @param mimeType image mime type
+     * @return true if the images of the {@code mimeType} have no alpha channel
+     */
+    public static boolean isOpaque(final String mimeType) {
+        return "image/jpeg".equals(mimeType) || "image/pjpeg".equals(mimeType);
+    }
+}
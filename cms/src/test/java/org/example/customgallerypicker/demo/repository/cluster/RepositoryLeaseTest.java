@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.repository.cluster;
+
+import javax.jcr.PathNotFoundException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onehippo.repository.testutils.RepositoryTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RepositoryLeaseTest extends RepositoryTestCase {
+
+    private static final String LEASE_PATH = "/test/lease";
+
+    private static final long TTL_MILLIS = 60000L;
+
+    private Session session1;
+
+    private Session session2;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        session.getRootNode().addNode("test");
+        session.save();
+        session1 = session.impersonate(new SimpleCredentials(session.getUserID(), new char[0]));
+        session2 = session.impersonate(new SimpleCredentials(session.getUserID(), new char[0]));
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        session1.logout();
+        session2.logout();
+        super.tearDown();
+    }
+
+    @Test
+    public void testAcquireAndRelease() throws Exception {
+        final RepositoryLease lease1 = new RepositoryLease(session1, LEASE_PATH, "node1", TTL_MILLIS);
+        final RepositoryLease lease2 = new RepositoryLease(session2, LEASE_PATH, "node2", TTL_MILLIS);
+
+        assertTrue(lease1.tryAcquire());
+        assertTrue(lease1.isHeld());
+        assertEquals("node1", session.getNode(LEASE_PATH).getProperty("owner").getString());
+
+        assertFalse(lease2.tryAcquire());
+        assertFalse(lease2.isHeld());
+        assertNull(lease2.getLastFailure());
+
+        assertTrue(lease1.tryAcquire());
+
+        lease1.release();
+        assertFalse(lease1.isHeld());
+
+        assertTrue(lease2.tryAcquire());
+        assertFalse(lease1.tryAcquire());
+    }
+
+    @Test
+    public void testExpiredLeaseIsTakenOver() throws Exception {
+        final RepositoryLease lease1 = new RepositoryLease(session1, LEASE_PATH, "node1", 100L);
+        final RepositoryLease lease2 = new RepositoryLease(session2, LEASE_PATH, "node2", TTL_MILLIS);
+
+        assertTrue(lease1.tryAcquire());
+        Thread.sleep(200L);
+        assertFalse(lease1.isHeld());
+
+        assertTrue(lease2.tryAcquire());
+        assertFalse(lease1.renewIfDue());
+        assertFalse(lease1.isHeld());
+    }
+
+    @Test
+    public void testRenewIfDue() throws Exception {
+        final RepositoryLease lease = new RepositoryLease(session1, LEASE_PATH, "node1", TTL_MILLIS);
+
+        assertFalse(lease.renewIfDue());
+        assertTrue(lease.tryAcquire());
+
+        final long expires = session.getNode(LEASE_PATH).getProperty("expires").getLong();
+        assertTrue(lease.renewIfDue());
+        session.refresh(false);
+        assertEquals(expires, session.getNode(LEASE_PATH).getProperty("expires").getLong());
+
+        final RepositoryLease shortLease = new RepositoryLease(session2, LEASE_PATH + "2", "node1", 300L);
+        assertTrue(shortLease.tryAcquire());
+        Thread.sleep(150L);
+        assertTrue(shortLease.renewIfDue());
+        session.refresh(false);
+        assertTrue(session.getNode(LEASE_PATH + "2").getProperty("expires").getLong() > System.currentTimeMillis() + 200L);
+    }
+
+    @Test
+    public void testLastFailure() throws Exception {
+        final RepositoryLease lease = new RepositoryLease(session1, "/test/nonexisting/lease", "node1", TTL_MILLIS);
+
+        assertFalse(lease.tryAcquire());
+        assertTrue(lease.getLastFailure() instanceof PathNotFoundException);
+    }
+}
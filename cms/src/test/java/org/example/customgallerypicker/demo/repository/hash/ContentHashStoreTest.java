@@ -0,0 +1,109 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.repository.hash;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onehippo.repository.testutils.RepositoryTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ContentHashStoreTest extends RepositoryTestCase {
+
+    private static final String STORE_PATH = "/test/hashes";
+
+    private static final String HASH_1 = "0123456789abcdef";
+
+    private static final String HASH_2 = "fedcba9876543210";
+
+    private ContentHashStore store;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        session.getRootNode().addNode("test");
+        session.save();
+        store = new ContentHashStore(session, STORE_PATH);
+    }
+
+    @Test
+    public void testPutAndRemove() throws Exception {
+        assertTrue(session.nodeExists(STORE_PATH));
+
+        store.put("ab-1", HASH_1, false);
+        store.put("ab-2", HASH_1, false);
+        store.put("cd-1", HASH_2, true);
+
+        assertEquals(HASH_1, store.getHash("ab-1"));
+        assertEquals(HASH_2, store.getHash("cd-1"));
+        assertNull(store.getHash("ef-1"));
+        assertTrue(session.propertyExists(STORE_PATH + "/ab/ab-2"));
+
+        final Map<String, String> hashes = store.loadAll();
+        assertEquals(3, hashes.size());
+        assertEquals(HASH_1, hashes.get("ab-2"));
+
+        assertEquals(new HashSet<String>(Arrays.asList("ab", "cd")), new HashSet<String>(store.getBucketNames()));
+        assertEquals(new HashSet<String>(Arrays.asList("ab-1", "ab-2")),
+                new HashSet<String>(store.getImageHandleIds("ab")));
+        assertTrue(store.getImageHandleIds("ef").isEmpty());
+
+        store.remove("ab-1", true);
+        store.remove("ef-1", true);
+
+        assertNull(store.getHash("ab-1"));
+        assertEquals(HASH_1, store.getHash("ab-2"));
+        assertEquals(2, store.loadAll().size());
+    }
+
+    @Test
+    public void testGetImageHandleId() throws Exception {
+        assertEquals("ab-1", store.getImageHandleId(STORE_PATH + "/ab/ab-1"));
+        assertNull(store.getImageHandleId(STORE_PATH + "/ab/jcr:primaryType"));
+        assertNull(store.getImageHandleId(STORE_PATH + "/cd/ab-1"));
+        assertNull(store.getImageHandleId(STORE_PATH + "/ab"));
+        assertNull(store.getImageHandleId("/test/other/ab/ab-1"));
+    }
+
+    @Test
+    public void testIndexMirrorsStoredHashes() throws Exception {
+        store.put("ab-1", HASH_1, false);
+        store.put("ab-2", HASH_1, true);
+
+        final InMemoryContentHashIndex index = new InMemoryContentHashIndex();
+        index.putAll(store.loadAll());
+
+        assertEquals(2, index.size());
+        assertEquals(new HashSet<String>(Arrays.asList("ab-1", "ab-2")), index.getImageHandleIds(HASH_1));
+
+        index.put(HASH_2, "ab-1");
+
+        assertEquals(HASH_2, index.getHash("ab-1"));
+        assertEquals(new HashSet<String>(Arrays.asList("ab-2")), index.getImageHandleIds(HASH_1));
+
+        index.remove("ab-2");
+
+        assertTrue(index.getImageHandleIds(HASH_1).isEmpty());
+        assertEquals(1, index.size());
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.repository.module;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onehippo.repository.testutils.RepositoryTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryPathSyncJournalTest extends RepositoryTestCase {
+
+    private static final String JOURNAL_PATH = "/test/journal";
+
+    private BinaryPathSyncJournal journal;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        session.getRootNode().addNode("test");
+        session.save();
+        journal = new BinaryPathSyncJournal(session, JOURNAL_PATH);
+    }
+
+    @Test
+    public void testAppend() throws Exception {
+        final String name1 = journal.append("rename", "id-1", "/content/documents/news", Arrays.asList("2015", "2016"));
+        final String name2 = journal.append("move", "id-2", "/content/documents/news/2015/doc", null);
+
+        assertEquals(Arrays.asList(name1, name2), journal.getEntryNames());
+        assertTrue(session.nodeExists(JOURNAL_PATH + "/" + name1));
+
+        final BinaryPathSyncJournal.Entry entry1 = journal.getEntry(name1);
+        assertEquals("rename", entry1.getAction());
+        assertEquals("id-1", entry1.getSubjectId());
+        assertEquals("/content/documents/news", entry1.getSubjectPath());
+        assertEquals(Arrays.asList("2015", "2016"), entry1.getArguments());
+        assertEquals(0, entry1.getAttempts());
+        assertTrue(entry1.getCreated() <= System.currentTimeMillis());
+
+        assertTrue(journal.getEntry(name2).getArguments().isEmpty());
+        assertNull(journal.getEntry("nonexisting"));
+    }
+
+    @Test
+    public void testReplayRemovesDoneAndCountsFailedEntries() throws Exception {
+        final String done = journal.append("move", "id-done", "/content/documents/a", null);
+        final String failed = journal.append("move", "id-failed", "/content/documents/b", null);
+
+        final RecordingReplayer replayer = new RecordingReplayer("id-failed");
+        final BinaryPathSyncJournal.ReplayResult result = journal.replay(Long.MAX_VALUE, 3, 1, replayer);
+
+        assertEquals(Arrays.asList("id-done", "id-failed"), replayer.replayed);
+        assertEquals(1, result.getDone());
+        assertEquals(1, result.getFailed());
+        assertEquals(0, result.getDropped());
+        assertNull(journal.getEntry(done));
+        assertEquals(1, journal.getEntry(failed).getAttempts());
+        assertEquals(Arrays.asList(failed), journal.getEntryNames());
+    }
+
+    @Test
+    public void testReplayDropsEntryAfterMaxAttempts() throws Exception {
+        final String name = journal.append("rename", "id-1", "/content/documents/news", Arrays.asList("2015", "2016"));
+        final RecordingReplayer replayer = new RecordingReplayer("id-1");
+
+        for (int i = 0; i < 2; i++) {
+            assertEquals(1, journal.replay(Long.MAX_VALUE, 2, 10, replayer).getFailed());
+        }
+
+        assertEquals(2, journal.getEntry(name).getAttempts());
+
+        final BinaryPathSyncJournal.ReplayResult result = journal.replay(Long.MAX_VALUE, 2, 10, replayer);
+
+        assertEquals(1, result.getDropped());
+        assertEquals(2, replayer.replayed.size());
+        assertTrue(journal.getEntryNames().isEmpty());
+    }
+
+    @Test
+    public void testReplaySkipsRecentEntries() throws Exception {
+        final String name = journal.append("move", "id-1", "/content/documents/a", null);
+        final RecordingReplayer replayer = new RecordingReplayer();
+
+        final BinaryPathSyncJournal.ReplayResult result = journal.replay(journal.getEntry(name).getCreated() - 1L, 3, 10, replayer);
+
+        assertTrue(result.isEmpty());
+        assertTrue(replayer.replayed.isEmpty());
+        assertNotNull(journal.getEntry(name));
+    }
+
+    @Test
+    public void testReplayStopsWhenInactive() throws Exception {
+        journal.append("move", "id-1", "/content/documents/a", null);
+        journal.append("move", "id-2", "/content/documents/b", null);
+
+        final RecordingReplayer replayer = new RecordingReplayer();
+        replayer.activeBatches = 1;
+
+        final BinaryPathSyncJournal.ReplayResult result = journal.replay(Long.MAX_VALUE, 3, 1, replayer);
+
+        assertEquals(1, result.getDone());
+        assertEquals(Arrays.asList("id-1"), replayer.replayed);
+        assertEquals(1, journal.getEntryNames().size());
+        assertEquals(2, replayer.activeChecks);
+    }
+
+    @Test
+    public void testEntryNamesAreUniqueAcrossClusterNodes() throws Exception {
+        final BinaryPathSyncJournal otherJournal = new BinaryPathSyncJournal(session, JOURNAL_PATH, "other-node");
+        final Set<String> names = new HashSet<String>();
+
+        for (int i = 0; i < 50; i++) {
+            names.add(journal.append("move", "id-" + i, "/content/documents/a", null));
+            names.add(otherJournal.append("move", "id-" + i, "/content/documents/a", null));
+        }
+
+        assertEquals(100, names.size());
+        assertEquals(100, journal.getEntryNames().size());
+        assertEquals("other-node", journal.getEntry(otherJournal.getEntryNames().get(1)).getOwnerId());
+    }
+
+    @Test
+    public void testReplayOwnEntriesWhateverTheirAge() throws Exception {
+        final BinaryPathSyncJournal ownJournal = new BinaryPathSyncJournal(session, JOURNAL_PATH, "own-node");
+        final BinaryPathSyncJournal otherJournal = new BinaryPathSyncJournal(session, JOURNAL_PATH, "other-node");
+        ownJournal.append("move", "id-own", "/content/documents/a", null);
+        final String other = otherJournal.append("move", "id-other", "/content/documents/b", null);
+        final RecordingReplayer replayer = new RecordingReplayer();
+
+        final BinaryPathSyncJournal.ReplayResult result = ownJournal.replay(0L, "own-node", 3, 10, replayer);
+
+        assertEquals(1, result.getDone());
+        assertEquals(Arrays.asList("id-own"), replayer.replayed);
+        assertEquals(Arrays.asList(other), ownJournal.getEntryNames());
+    }
+
+    private static class RecordingReplayer implements BinaryPathSyncJournal.Replayer {
+
+        private final Set<String> failingSubjectIds;
+
+        private final List<String> replayed = new ArrayList<String>();
+
+        private int activeBatches = Integer.MAX_VALUE;
+
+        private int activeChecks;
+
+        private RecordingReplayer(final String ... failingSubjectIds) {
+            this.failingSubjectIds = new HashSet<String>(Arrays.asList(failingSubjectIds));
+        }
+
+        @Override
+        public boolean isActive() {
+            return activeChecks++ < activeBatches;
+        }
+
+        @Override
+        public boolean replay(BinaryPathSyncJournal.Entry entry) {
+            replayed.add(entry.getSubjectId());
+            return !failingSubjectIds.contains(entry.getSubjectId());
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.repository.module;
+
+import java.util.Arrays;
+
+import javax.jcr.NamespaceException;
+import javax.jcr.NamespaceRegistry;
+import javax.jcr.Node;
+
+import org.example.customgallerypicker.demo.repository.cluster.RepositoryLease;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onehippo.repository.events.HippoWorkflowEvent;
+import org.onehippo.repository.testutils.RepositoryTestCase;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryPathUpdaterModuleTest extends RepositoryTestCase {
+
+    private static final String FOLDER_PATH = "/content/documents/movetest";
+
+    private static final String GALLERY_FOLDER_PATH = "/content/gallery/movetest";
+
+    private static final String MODULE_CONFIG_PATH = "/test/binarypathupdater";
+
+    private BinaryPathUpdaterModule module;
+
+    private Node handleNode;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        final NamespaceRegistry registry = session.getWorkspace().getNamespaceRegistry();
+
+        try {
+            registry.getURI("customgallerypickerdemo");
+        } catch (NamespaceException e) {
+            registry.registerNamespace("customgallerypickerdemo", "http://www.onehippo.org/customgallerypickerdemo/nt/1.0");
+        }
+
+        final Node rootNode = session.getRootNode();
+        final Node contentNode = rootNode.hasNode("content") ? rootNode.getNode("content") : rootNode.addNode("content", "nt:unstructured");
+        final Node documentsNode = contentNode.hasNode("documents") ? contentNode.getNode("documents") : contentNode.addNode("documents", "nt:unstructured");
+        final Node galleryNode = contentNode.hasNode("gallery") ? contentNode.getNode("gallery") : contentNode.addNode("gallery", "nt:unstructured");
+
+        // the document handle as moved by the workflow from src to dst
+        final Node folderNode = documentsNode.addNode("movetest", "hippostd:folder");
+        folderNode.addNode("src", "hippostd:folder");
+        handleNode = folderNode.addNode("dst", "hippostd:folder").addNode("doc", "hippo:handle");
+        handleNode.addMixin("mix:referenceable");
+        handleNode.addNode("doc", "hippo:document");
+
+        // the binary folder still at the document handle location before the move
+        final Node galleryFolderNode = galleryNode.addNode("movetest", "nt:unstructured");
+        galleryFolderNode.addNode("src", "nt:unstructured").addNode("doc", "nt:unstructured");
+        galleryFolderNode.addNode("dst", "nt:unstructured");
+
+        rootNode.addNode("test", "nt:unstructured").addNode("binarypathupdater", "nt:unstructured");
+        session.save();
+
+        module = new BinaryPathUpdaterModule();
+        module.configure(session.getNode(MODULE_CONFIG_PATH));
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        module.shutdown();
+        session.refresh(false);
+
+        for (String path : new String [] { FOLDER_PATH, GALLERY_FOLDER_PATH }) {
+            if (session.nodeExists(path)) {
+                session.getNode(path).remove();
+            }
+        }
+
+        session.save();
+        super.tearDown();
+    }
+
+    @Test
+    public void testMoveEventMovesBinaryFolder() throws Exception {
+        module.initialize(session);
+
+        final HippoWorkflowEvent event = new HippoWorkflowEvent();
+        event.category("workflow");
+        event.action("move");
+        event.subjectId(handleNode.getIdentifier());
+        event.subjectPath(FOLDER_PATH + "/src/doc");
+        event.arguments(Arrays.asList(FOLDER_PATH + "/dst", "doc"));
+        module.new HippoDocumentRenameEventListener().handleEvent(event);
+
+        assertBinaryFolderMoved();
+        assertTrue(createJournal().getEntryNames().isEmpty());
+    }
+
+    @Test
+    public void testInitializeReplaysOwnJournalEntries() throws Exception {
+        // left behind by this cluster node stopping in the middle of the move
+        final BinaryPathSyncJournal journal = createJournal();
+        journal.append("move", handleNode.getIdentifier(), FOLDER_PATH + "/src/doc", Arrays.asList(FOLDER_PATH + "/dst", "doc"));
+
+        module.initialize(session);
+
+        assertBinaryFolderMoved();
+        assertTrue(journal.getEntryNames().isEmpty());
+    }
+
+    private BinaryPathSyncJournal createJournal() throws Exception {
+        return new BinaryPathSyncJournal(session, MODULE_CONFIG_PATH + "/journal", RepositoryLease.getDefaultOwnerId());
+    }
+
+    private void assertBinaryFolderMoved() throws Exception {
+        session.refresh(false);
+        assertFalse(session.nodeExists(GALLERY_FOLDER_PATH + "/src/doc"));
+        assertTrue(session.nodeExists(GALLERY_FOLDER_PATH + "/dst/doc"));
+        assertTrue(session.getNode(GALLERY_FOLDER_PATH + "/dst/doc").isNodeType("hippo:translated"));
+    }
+}
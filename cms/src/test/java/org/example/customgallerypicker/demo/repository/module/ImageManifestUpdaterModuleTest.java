@@ -0,0 +1,132 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.repository.module;
+
+import javax.jcr.NamespaceException;
+import javax.jcr.NamespaceRegistry;
+import javax.jcr.Node;
+import javax.jcr.Value;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onehippo.repository.testutils.RepositoryTestCase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ImageManifestUpdaterModuleTest extends RepositoryTestCase {
+
+    private static final String GALLERY_FOLDER_PATH = "/content/gallery/manifesttest";
+
+    private Node htmlNode;
+
+    private Node imageHandleNode;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        final NamespaceRegistry registry = session.getWorkspace().getNamespaceRegistry();
+
+        try {
+            registry.getURI("customgallerypickerdemo");
+        } catch (NamespaceException e) {
+            registry.registerNamespace("customgallerypickerdemo", "http://www.onehippo.org/customgallerypickerdemo/nt/1.0");
+        }
+
+        final Node rootNode = session.getRootNode();
+        final Node contentNode = rootNode.hasNode("content") ? rootNode.getNode("content") : rootNode.addNode("content", "nt:unstructured");
+        final Node galleryNode = contentNode.hasNode("gallery") ? contentNode.getNode("gallery") : contentNode.addNode("gallery", "nt:unstructured");
+        final Node galleryFolderNode = galleryNode.addNode("manifesttest", "nt:unstructured");
+        imageHandleNode = galleryFolderNode.addNode("coffee.jpg", "hippo:handle");
+        imageHandleNode.addMixin("mix:referenceable");
+
+        htmlNode = rootNode.addNode("test", "nt:unstructured").addNode("content", "nt:unstructured");
+        session.save();
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        if (session.nodeExists(GALLERY_FOLDER_PATH)) {
+            session.getNode(GALLERY_FOLDER_PATH).remove();
+            session.save();
+        }
+
+        super.tearDown();
+    }
+
+    @Test
+    public void testCreateImageManifest() throws Exception {
+        addLink("coffee.jpg", imageHandleNode.getIdentifier());
+        addLink("missing.jpg", "00000000-0000-0000-0000-000000000000");
+        addLink("document", htmlNode.getParent().getIdentifier());
+        session.save();
+
+        final String [] manifest = ImageManifestUpdaterModule.createImageManifest(session, htmlNode);
+
+        assertArrayEquals(new String [] { "coffee.jpg|" + imageHandleNode.getIdentifier() + "|" + GALLERY_FOLDER_PATH + "/coffee.jpg|0|0" },
+                manifest);
+    }
+
+    @Test
+    public void testRelocateImageManifestEntries() throws Exception {
+        final Node variantNode = session.getNode("/test");
+        variantNode.setProperty(ImageManifestUpdaterModule.IMAGE_MANIFEST_PROP_NAME, new String [] {
+                "a.jpg|id-a|/content/gallery/news/doc/a.jpg|150|99",
+                "b.jpg|/content/gallery/news/doc/b.jpg|150|99",
+                "c.jpg|id-c|/content/gallery/news/doc-2/c.jpg|150|99"
+        });
+
+        assertTrue(ImageManifestUpdaterModule.relocateImageManifestEntries(variantNode,
+                "/content/gallery/news/doc", "/content/gallery/archive/doc"));
+        assertManifest(variantNode,
+                "a.jpg|id-a|/content/gallery/archive/doc/a.jpg|150|99",
+                "b.jpg|/content/gallery/archive/doc/b.jpg|150|99",
+                "c.jpg|id-c|/content/gallery/news/doc-2/c.jpg|150|99");
+
+        assertFalse(ImageManifestUpdaterModule.relocateImageManifestEntries(variantNode,
+                "/content/gallery/other", "/content/gallery/archive/other"));
+    }
+
+    @Test
+    public void testCreateManifestPathPattern() throws Exception {
+        assertEquals("%|/content/gallery/news/doc/%", ImageManifestUpdaterModule.createManifestPathPattern("/content/gallery/news/doc"));
+        assertEquals("%|/content/gallery/100\\%\\_o''clock/%",
+                ImageManifestUpdaterModule.createManifestPathPattern("/content/gallery/100%_o'clock"));
+    }
+
+    private void addLink(final String name, final String docbase) throws Exception {
+        final Node linkNode = htmlNode.addNode(name, "hippo:facetselect");
+        linkNode.setProperty("hippo:docbase", docbase);
+        linkNode.setProperty("hippo:facets", new String[0]);
+        linkNode.setProperty("hippo:modes", new String[0]);
+        linkNode.setProperty("hippo:values", new String[0]);
+    }
+
+    private static void assertManifest(final Node variantNode, final String ... expected) throws Exception {
+        final Value [] values = variantNode.getProperty(ImageManifestUpdaterModule.IMAGE_MANIFEST_PROP_NAME).getValues();
+        assertEquals(expected.length, values.length);
+
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], values[i].getString());
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.repository.reorganize;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onehippo.repository.testutils.RepositoryTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BulkReorganizerTest extends RepositoryTestCase {
+
+    private static final String FOLDER_PATH = "/content/documents/reorgtest";
+
+    private static final String GALLERY_FOLDER_PATH = "/content/gallery/reorgtest";
+
+    private Session otherSession;
+
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        final Node rootNode = session.getRootNode();
+        final Node contentNode = rootNode.hasNode("content") ? rootNode.getNode("content") : rootNode.addNode("content", "nt:unstructured");
+        final Node documentsNode = contentNode.hasNode("documents") ? contentNode.getNode("documents") : contentNode.addNode("documents", "nt:unstructured");
+        final Node galleryNode = contentNode.hasNode("gallery") ? contentNode.getNode("gallery") : contentNode.addNode("gallery", "nt:unstructured");
+
+        final Node folderNode = documentsNode.addNode("reorgtest", "hippostd:folder");
+        final Node srcNode = folderNode.addNode("src", "hippostd:folder");
+        folderNode.addNode("src2", "hippostd:folder");
+        final Node dstNode = folderNode.addNode("dst", "hippostd:folder");
+        folderNode.addNode("dst2", "hippostd:folder");
+
+        for (String name : new String [] { "a", "b", "c", "d", "e", "f" }) {
+            addHandle(srcNode, name);
+        }
+
+        addHandle(folderNode.getNode("src2"), "e");
+        addHandle(dstNode, "d");
+
+        final Node galleryFolderNode = galleryNode.addNode("reorgtest", "nt:unstructured");
+        galleryFolderNode.addNode("src", "nt:unstructured").addNode("f", "nt:unstructured");
+        galleryFolderNode.addNode("dst", "nt:unstructured").addNode("f", "nt:unstructured");
+
+        session.save();
+        otherSession = session.impersonate(new SimpleCredentials(session.getUserID(), new char[0]));
+    }
+
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        otherSession.logout();
+        session.refresh(false);
+
+        for (String path : new String [] { FOLDER_PATH, GALLERY_FOLDER_PATH }) {
+            if (session.nodeExists(path)) {
+                session.getNode(path).remove();
+            }
+        }
+
+        session.save();
+        super.tearDown();
+    }
+
+    @Test
+    public void testPlanSkipsInvalidMoves() throws Exception {
+        final List<DocumentMove> moves = Arrays.asList(
+                new DocumentMove("reorgtest/src/a", "reorgtest/dst"),
+                new DocumentMove(FOLDER_PATH + "/src/a", FOLDER_PATH + "/dst2"),
+                new DocumentMove("/content/gallery/reorgtest/src/f", FOLDER_PATH + "/dst"),
+                new DocumentMove(FOLDER_PATH + "/src/missing", FOLDER_PATH + "/dst"),
+                new DocumentMove(FOLDER_PATH + "/src", FOLDER_PATH + "/dst"),
+                new DocumentMove(FOLDER_PATH + "/src/b", FOLDER_PATH + "/missing"),
+                new DocumentMove(FOLDER_PATH + "/src/c", FOLDER_PATH + "/src"),
+                new DocumentMove(FOLDER_PATH + "/src/d", FOLDER_PATH + "/dst"),
+                new DocumentMove(FOLDER_PATH + "/src/e", FOLDER_PATH + "/dst2"),
+                new DocumentMove(FOLDER_PATH + "/src2/e", FOLDER_PATH + "/dst2"),
+                new DocumentMove(FOLDER_PATH + "/src/f", FOLDER_PATH + "/dst"));
+
+        final BulkReorganizer reorganizer = new BulkReorganizer(session);
+        reorganizer.setDryRun(true);
+        final BulkReorganizeReport report = reorganizer.reorganize(moves);
+
+        assertEquals(2, report.getPlanned());
+        assertEquals(9, report.getSkipped());
+        assertEquals(0, report.getDocuments());
+        assertEquals(Arrays.asList(
+                "skipped " + FOLDER_PATH + "/src/a -> " + FOLDER_PATH + "/dst2: duplicate source",
+                "skipped /content/gallery/reorgtest/src/f -> " + FOLDER_PATH + "/dst: not under /content/documents",
+                "skipped " + FOLDER_PATH + "/src/missing -> " + FOLDER_PATH + "/dst: source document handle not found",
+                "skipped " + FOLDER_PATH + "/src -> " + FOLDER_PATH + "/dst: source document handle not found",
+                "skipped " + FOLDER_PATH + "/src/b -> " + FOLDER_PATH + "/missing: target folder not found",
+                "skipped " + FOLDER_PATH + "/src/c -> " + FOLDER_PATH + "/src: already in the target folder",
+                "skipped " + FOLDER_PATH + "/src/d -> " + FOLDER_PATH + "/dst: target already exists",
+                "skipped " + FOLDER_PATH + "/src2/e -> " + FOLDER_PATH + "/dst2: target already exists",
+                "skipped " + FOLDER_PATH + "/src/f -> " + FOLDER_PATH + "/dst: target binary folder already exists"),
+                report.getMessages());
+
+        // a dry run moves nothing
+        assertTrue(session.nodeExists(FOLDER_PATH + "/src/a"));
+        assertFalse(session.nodeExists(FOLDER_PATH + "/dst/a"));
+    }
+
+    @Test
+    public void testFailedBatchIsAppliedOneByOne() throws Exception {
+        final List<DocumentMove> moves = Arrays.asList(
+                new DocumentMove(FOLDER_PATH + "/src/a", FOLDER_PATH + "/dst2"),
+                new DocumentMove(FOLDER_PATH + "/src/b", FOLDER_PATH + "/dst2"),
+                new DocumentMove(FOLDER_PATH + "/src/c", FOLDER_PATH + "/dst2"),
+                new DocumentMove(FOLDER_PATH + "/src/d", FOLDER_PATH + "/dst2"));
+
+        final BulkReorganizer reorganizer = new BulkReorganizer(session);
+        reorganizer.setBatchSize(2);
+        reorganizer.setProgressListener(new BulkReorganizer.ProgressListener() {
+            @Override
+            public void batchApplied(BulkReorganizeReport report) {
+                // a concurrent change making the next batch fail
+                try {
+                    if (otherSession.nodeExists(FOLDER_PATH + "/src/c")) {
+                        otherSession.getNode(FOLDER_PATH + "/src/c").remove();
+                        otherSession.save();
+                    }
+                } catch (RepositoryException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+
+        final BulkReorganizeReport report = reorganizer.reorganize(moves);
+
+        assertEquals(4, report.getPlanned());
+        assertEquals(3, report.getDocuments());
+        assertEquals(1, report.getFailed());
+        assertEquals(0, report.getGalleries());
+        // one save for the first batch, then one for the remaining move of the failed batch
+        assertEquals(2, report.getSaves());
+
+        for (String name : new String [] { "a", "b", "d" }) {
+            assertTrue(session.nodeExists(FOLDER_PATH + "/dst2/" + name));
+            assertFalse(session.nodeExists(FOLDER_PATH + "/src/" + name));
+        }
+
+        assertFalse(session.nodeExists(FOLDER_PATH + "/dst2/c"));
+        assertTrue(report.getMessages().get(0).startsWith("failed " + FOLDER_PATH + "/src/c -> " + FOLDER_PATH + "/dst2: "));
+    }
+
+    private static void addHandle(final Node folderNode, final String name) throws RepositoryException {
+        folderNode.addNode(name, "hippo:handle").addMixin("mix:referenceable");
+    }
+}
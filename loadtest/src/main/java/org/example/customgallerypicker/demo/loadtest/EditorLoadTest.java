@@ -0,0 +1,193 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.loadtest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.example.customgallerypicker.demo.repository.importer.NewsArchiveImporter;
+import org.example.customgallerypicker.demo.repository.util.BinaryFolderUtils;
+import org.hippoecm.repository.HippoRepository;
+import org.hippoecm.repository.HippoRepositoryFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-process load test of the gallery pickers and the binary folder synchronization,
+ * running concurrent simulated editors against a local repository bootstrapped with the project configuration.
+ * <p>
+ * The load test imports a fixture of news documents with images into a new root folder, runs
+ * <code>loadtest.editors</code> {@link EditorSimulation}s for <code>loadtest.duration.seconds</code>,
+ * waits until the binary folder synchronization journal is drained and reports the throughput,
+ * the p50/p99 latencies and the save conflicts per operation and the final tree consistency.
+ * It exits with status 1 if the final tree is inconsistent.
+ * </p>
+ * <p>
+ * System properties (defaults in parentheses):
+ * </p>
+ * <ul>
+ *   <li><code>loadtest.repository</code>: local repository storage directory (./storage)</li>
+ *   <li><code>loadtest.editors</code>: number of concurrent editors (20)</li>
+ *   <li><code>loadtest.duration.seconds</code>: test duration (60)</li>
+ *   <li><code>loadtest.folders</code>: number of news folders in the fixture (10)</li>
+ *   <li><code>loadtest.documents.per.folder</code>: number of news documents per folder (20)</li>
+ *   <li><code>loadtest.picker.weight</code>: percentage of picker openings among the operations (70)</li>
+ *   <li><code>loadtest.quiesce.seconds</code>: maximum time to wait for the synchronization journal to drain (120)</li>
+ * </ul>
+ */
+public class EditorLoadTest {
+
+    private static Logger log = LoggerFactory.getLogger(EditorLoadTest.class);
+
+    private static final String USERNAME = "admin";
+
+    private static final char [] PASSWORD = "admin".toCharArray();
+
+    private static final String JOURNAL_PATH = "/hippo:configuration/hippo:modules/binarypathupdater/hippo:moduleconfig/journal";
+
+    public static void main(String [] args) throws Exception {
+        final String repositoryLocation = new File(System.getProperty("loadtest.repository", "storage")).getAbsolutePath();
+        final int editors = Integer.getInteger("loadtest.editors", 20);
+        final int durationSeconds = Integer.getInteger("loadtest.duration.seconds", 60);
+        final int folders = Integer.getInteger("loadtest.folders", 10);
+        final int documentsPerFolder = Integer.getInteger("loadtest.documents.per.folder", 20);
+        final int pickerWeight = Integer.getInteger("loadtest.picker.weight", 70);
+        final int quiesceSeconds = Integer.getInteger("loadtest.quiesce.seconds", 120);
+
+        final HippoRepository repository = HippoRepositoryFactory.getHippoRepository(repositoryLocation);
+        boolean consistent = false;
+
+        try {
+            final String rootFolderName = "loadtest-" + System.currentTimeMillis();
+            final Session session = repository.login(USERNAME, PASSWORD);
+
+            try {
+                log.info("Importing the fixture of {} x {} news documents into '{}'.", folders, documentsPerFolder, rootFolderName);
+                importFixture(session, rootFolderName, folders, documentsPerFolder);
+
+                final List<String> folderIds = new ArrayList<String>();
+                final List<String> documentIds = new ArrayList<String>();
+                collectFixtureIds(session.getNode(BinaryFolderUtils.DOCUMENTS_ROOT_PATH + "/" + rootFolderName), folderIds, documentIds);
+
+                log.info("Running {} editors for {} seconds.", editors, durationSeconds);
+                final LoadTestReport report = new LoadTestReport();
+                runEditors(repository, editors, durationSeconds, pickerWeight,
+                        Collections.unmodifiableList(folderIds), Collections.unmodifiableList(documentIds), report);
+
+                report.setUnsynchronizedOperations(awaitJournalDrained(session, quiesceSeconds));
+                new TreeConsistencyChecker(session).check(rootFolderName, documentIds, report);
+
+                log.info("Load test report:\n{}", report);
+                consistent = report.isConsistent();
+            } finally {
+                session.logout();
+            }
+        } finally {
+            repository.close();
+        }
+
+        System.exit(consistent ? 0 : 1);
+    }
+
+    private static void importFixture(final Session session, final String rootFolderName, final int folders,
+            final int documentsPerFolder) throws Exception {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new FixtureArchiveGenerator(rootFolderName, folders, documentsPerFolder).write(baos);
+        new NewsArchiveImporter(session).importArchive(new ByteArrayInputStream(baos.toByteArray()));
+    }
+
+    private static void collectFixtureIds(final Node rootFolderNode, final List<String> folderIds,
+            final List<String> documentIds) throws RepositoryException {
+        for (NodeIterator folderIt = rootFolderNode.getNodes(); folderIt.hasNext(); ) {
+            final Node folderNode = folderIt.nextNode();
+
+            if (folderNode.isNodeType("hippostd:folder")) {
+                folderIds.add(folderNode.getIdentifier());
+
+                for (NodeIterator handleIt = folderNode.getNodes(); handleIt.hasNext(); ) {
+                    final Node handleNode = handleIt.nextNode();
+
+                    if (handleNode.isNodeType("hippo:handle")) {
+                        documentIds.add(handleNode.getIdentifier());
+                    }
+                }
+            }
+        }
+    }
+
+    private static void runEditors(final HippoRepository repository, final int editors, final int durationSeconds,
+            final int pickerWeight, final List<String> folderIds, final List<String> documentIds,
+            final LoadTestReport report) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(editors);
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(durationSeconds);
+
+        report.start();
+
+        try {
+            for (int i = 0; i < editors; i++) {
+                executor.execute(new EditorSimulation(repository.login(USERNAME, PASSWORD), documentIds, folderIds,
+                        pickerWeight, deadline, report));
+            }
+
+            executor.shutdown();
+
+            if (!executor.awaitTermination(durationSeconds + 60L, TimeUnit.SECONDS)) {
+                log.warn("Editors didn't finish in time.");
+            }
+        } finally {
+            executor.shutdownNow();
+            report.finish();
+        }
+    }
+
+    /**
+     * Waits until the binary folder synchronization journal is empty or the timeout is reached.
+     * @return the number of synchronization operations left in the journal
+     */
+    private static int awaitJournalDrained(final Session session, final int timeoutSeconds) throws Exception {
+        final long timeout = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeoutSeconds);
+        int pending = 0;
+
+        do {
+            session.refresh(false);
+            pending = (session.nodeExists(JOURNAL_PATH) ? (int) session.getNode(JOURNAL_PATH).getNodes().getSize() : 0);
+
+            if (pending == 0) {
+                break;
+            }
+
+            Thread.sleep(500L);
+        } while (System.currentTimeMillis() < timeout);
+
+        if (pending > 0) {
+            log.warn("{} binary folder synchronization operations are left in the journal.", pending);
+        }
+
+        return pending;
+    }
+}
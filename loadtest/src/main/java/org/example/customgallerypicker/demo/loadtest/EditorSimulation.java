@@ -0,0 +1,220 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.loadtest;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jcr.InvalidItemStateException;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.example.customgallerypicker.demo.repository.util.BinaryFolderUtils;
+import org.hippoecm.repository.api.Document;
+import org.hippoecm.repository.api.HippoWorkspace;
+import org.hippoecm.repository.api.WorkflowManager;
+import org.hippoecm.repository.standardworkflow.DefaultWorkflow;
+import org.hippoecm.repository.standardworkflow.FolderWorkflow;
+import org.onehippo.repository.documentworkflow.DocumentWorkflow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A simulated editor running random operations in its own session until the deadline:
+ * opening the gallery picker or the CKEditor image picker on a news document, renaming or moving a news document
+ * and renaming a news folder. The pickers resolve their base folder through the same code as
+ * <code>BinaryPathDeterminingPluginConfig</code>, and the renames and moves go through the workflows,
+ * so the binary folder synchronization module handles their events as in the CMS.
+ */
+public class EditorSimulation implements Runnable {
+
+    private static Logger log = LoggerFactory.getLogger(EditorSimulation.class);
+
+    static final String OPEN_GALLERY_PICKER = "openGalleryPicker";
+    static final String OPEN_CKEDITOR_PICKER = "openCKEditorPicker";
+    static final String RENAME_DOCUMENT = "renameDocument";
+    static final String MOVE_DOCUMENT = "moveDocument";
+    static final String RENAME_FOLDER = "renameFolder";
+
+    /**
+     * Unique suffix sequence of the new names, shared by all the editors.
+     */
+    private static final AtomicInteger RENAME_SEQUENCE = new AtomicInteger();
+
+    private final Session session;
+
+    private final List<String> documentIds;
+
+    private final List<String> folderIds;
+
+    private final int pickerWeight;
+
+    private final long deadline;
+
+    private final LoadTestReport report;
+
+    private final Random random = new Random();
+
+    /**
+     * Constructor.
+     * @param session editor's own JCR session, logged out when the simulation ends
+     * @param documentIds identifiers of the fixture news document handles
+     * @param folderIds identifiers of the fixture news folders
+     * @param pickerWeight percentage of the picker operations, the rest being evenly split among the renames and moves
+     * @param deadline end time in epoch milliseconds
+     * @param report load test report
+     */
+    public EditorSimulation(final Session session, final List<String> documentIds, final List<String> folderIds,
+            final int pickerWeight, final long deadline, final LoadTestReport report) {
+        this.session = session;
+        this.documentIds = documentIds;
+        this.folderIds = folderIds;
+        this.pickerWeight = pickerWeight;
+        this.deadline = deadline;
+        this.report = report;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (System.currentTimeMillis() < deadline && !Thread.currentThread().isInterrupted()) {
+                runOperation(nextOperation());
+            }
+        } finally {
+            session.logout();
+        }
+    }
+
+    private String nextOperation() {
+        final int dice = random.nextInt(100);
+
+        if (dice < pickerWeight) {
+            return (dice % 2 == 0 ? OPEN_GALLERY_PICKER : OPEN_CKEDITOR_PICKER);
+        }
+
+        switch (dice % 3) {
+            case 0:
+                return RENAME_DOCUMENT;
+            case 1:
+                return MOVE_DOCUMENT;
+            default:
+                return RENAME_FOLDER;
+        }
+    }
+
+    private void runOperation(final String operation) {
+        final long start = System.nanoTime();
+
+        try {
+            if (OPEN_GALLERY_PICKER.equals(operation)) {
+                openPicker("customgallerypickerdemo:image");
+            } else if (OPEN_CKEDITOR_PICKER.equals(operation)) {
+                openPicker("customgallerypickerdemo:content");
+            } else if (RENAME_DOCUMENT.equals(operation)) {
+                renameDocument();
+            } else if (MOVE_DOCUMENT.equals(operation)) {
+                moveDocument();
+            } else {
+                renameFolder();
+            }
+
+            report.succeeded(operation, System.nanoTime() - start);
+        } catch (Exception e) {
+            if (isConflict(e)) {
+                report.conflicted(operation);
+            } else {
+                log.debug("Operation '{}' failed: {}", operation, e.toString());
+                report.failed(operation);
+            }
+        } finally {
+            try {
+                session.refresh(false);
+            } catch (RepositoryException re) {
+                log.error("Failed to refresh the session.", re);
+            }
+        }
+    }
+
+    /**
+     * Resolves the picker base folder of the field of a random document and lists the whole folder,
+     * as the stock picker listing reads all the child nodes of the folder when the dialog opens.
+     * @param fieldName image link or rich text field node name
+     * @throws RepositoryException repository exception
+     */
+    private void openPicker(final String fieldName) throws RepositoryException {
+        final Node handleNode = randomNode(documentIds);
+        final Node fieldNode = handleNode.getNode(handleNode.getName()).getNode(fieldName);
+        final Node binaryFolderNode = BinaryFolderUtils.getOrCreateContextBinaryFolderNode(session, fieldNode);
+
+        if (binaryFolderNode == null) {
+            throw new RepositoryException("No context binary folder for " + fieldNode.getPath());
+        }
+
+        for (NodeIterator nodeIt = binaryFolderNode.getNodes(); nodeIt.hasNext(); ) {
+            nodeIt.nextNode().getName();
+        }
+    }
+
+    private void renameDocument() throws Exception {
+        final Node handleNode = randomNode(documentIds);
+        final String newName = handleNode.getName().replaceFirst("-r\\d+$", "") + "-r" + RENAME_SEQUENCE.incrementAndGet();
+        final WorkflowManager workflowManager = getWorkflowManager();
+
+        ((DocumentWorkflow) workflowManager.getWorkflow("default", handleNode)).rename(newName);
+        ((DefaultWorkflow) workflowManager.getWorkflow("core", handleNode)).replaceAllLocalizedNames(newName);
+    }
+
+    private void moveDocument() throws Exception {
+        final Node handleNode = randomNode(documentIds);
+        Node targetFolderNode = randomNode(folderIds);
+
+        if (targetFolderNode.isSame(handleNode.getParent())) {
+            targetFolderNode = randomNode(folderIds);
+        }
+
+        ((DocumentWorkflow) getWorkflowManager().getWorkflow("default", handleNode))
+                .move(new Document(targetFolderNode), handleNode.getName());
+    }
+
+    private void renameFolder() throws Exception {
+        final Node folderNode = randomNode(folderIds);
+        final String oldName = folderNode.getName();
+        final String newName = oldName.replaceFirst("-r\\d+$", "") + "-r" + RENAME_SEQUENCE.incrementAndGet();
+
+        ((FolderWorkflow) getWorkflowManager().getWorkflow("threepane", folderNode.getParent())).rename(oldName, newName);
+    }
+
+    private Node randomNode(final List<String> ids) throws RepositoryException {
+        return session.getNodeByIdentifier(ids.get(random.nextInt(ids.size())));
+    }
+
+    private WorkflowManager getWorkflowManager() throws RepositoryException {
+        return ((HippoWorkspace) session.getWorkspace()).getWorkflowManager();
+    }
+
+    private static boolean isConflict(final Throwable throwable) {
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InvalidItemStateException) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.loadtest;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.imageio.ImageIO;
+
+import org.example.customgallerypicker.demo.repository.importer.NewsArchiveImporter;
+
+/**
+ * Generates the load test fixture as a news archive for {@link NewsArchiveImporter},
+ * so the documents and their context gallery folders are created the same way as in production:
+ * <code>folders</code> news folders under the fixture root folder, each containing <code>documentsPerFolder</code>
+ * news documents having one image each.
+ */
+public class FixtureArchiveGenerator {
+
+    private final String rootFolderName;
+
+    private final int folders;
+
+    private final int documentsPerFolder;
+
+    /**
+     * Constructor.
+     * @param rootFolderName fixture root folder name, directly under "/content/documents/"
+     * @param folders number of news folders
+     * @param documentsPerFolder number of news documents per folder
+     */
+    public FixtureArchiveGenerator(final String rootFolderName, final int folders, final int documentsPerFolder) {
+        this.rootFolderName = rootFolderName;
+        this.folders = folders;
+        this.documentsPerFolder = documentsPerFolder;
+    }
+
+    /**
+     * Writes the fixture archive.
+     * @param output output stream, which is not closed by this method
+     * @throws IOException IO exception
+     */
+    public void write(final OutputStream output) throws IOException {
+        final ZipOutputStream zout = new ZipOutputStream(output);
+        final byte [] image = createImage();
+        int documentIndex = 0;
+
+        for (int i = 0; i < folders; i++) {
+            for (int j = 0; j < documentsPerFolder; j++) {
+                final String dirPath = rootFolderName + "/folder-" + i + "/news-" + documentIndex;
+                final String properties = "title=Load test news " + documentIndex + "\n"
+                        + "introduction=Load test news document\n"
+                        + "content=<html><body><p>Load test news " + documentIndex + "</p></body></html>\n"
+                        + "image=image.png\n";
+
+                zout.putNextEntry(new ZipEntry(dirPath + "/document.properties"));
+                zout.write(properties.getBytes("UTF-8"));
+                zout.closeEntry();
+
+                zout.putNextEntry(new ZipEntry(dirPath + "/image.png"));
+                zout.write(image);
+                zout.closeEntry();
+
+                documentIndex++;
+            }
+        }
+
+        zout.finish();
+    }
+
+    private static byte [] createImage() throws IOException {
+        final BufferedImage image = new BufferedImage(320, 240, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D g = image.createGraphics();
+
+        try {
+            g.setColor(Color.LIGHT_GRAY);
+            g.fillRect(0, 0, 320, 240);
+        } finally {
+            g.dispose();
+        }
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(4096);
+        ImageIO.write(image, "png", baos);
+        return baos.toByteArray();
+    }
+}
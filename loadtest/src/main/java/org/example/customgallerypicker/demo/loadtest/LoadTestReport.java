@@ -0,0 +1,166 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.loadtest;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Thread safe throughput, latency and consistency figures of an {@link EditorLoadTest} run.
+ */
+public class LoadTestReport {
+
+    private final Map<String, OperationStats> operationStatsMap = new TreeMap<String, OperationStats>();
+
+    private long startTime;
+
+    private long endTime;
+
+    private int checkedDocuments;
+
+    private int missingFolders;
+
+    private int misplacedImages;
+
+    private int danglingLinks;
+
+    private int orphanFolders;
+
+    private int unsynchronizedOperations;
+
+    synchronized void start() {
+        startTime = System.currentTimeMillis();
+    }
+
+    synchronized void finish() {
+        endTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Records a succeeded operation.
+     * @param operation operation name
+     * @param nanos elapsed time in nanoseconds
+     */
+    synchronized void succeeded(final String operation, final long nanos) {
+        getOperationStats(operation).add(nanos);
+    }
+
+    /**
+     * Records an operation failed by a save conflict with a concurrent editor or the synchronization module.
+     * @param operation operation name
+     */
+    synchronized void conflicted(final String operation) {
+        getOperationStats(operation).conflicts++;
+    }
+
+    /**
+     * Records an operation failed by any other error.
+     * @param operation operation name
+     */
+    synchronized void failed(final String operation) {
+        getOperationStats(operation).failures++;
+    }
+
+    synchronized void setConsistency(final int checkedDocuments, final int missingFolders, final int misplacedImages,
+            final int danglingLinks, final int orphanFolders) {
+        this.checkedDocuments = checkedDocuments;
+        this.missingFolders = missingFolders;
+        this.misplacedImages = misplacedImages;
+        this.danglingLinks = danglingLinks;
+        this.orphanFolders = orphanFolders;
+    }
+
+    synchronized void setUnsynchronizedOperations(final int unsynchronizedOperations) {
+        this.unsynchronizedOperations = unsynchronizedOperations;
+    }
+
+    /**
+     * Returns true if the final tree is consistent: every document image is in its context gallery folder,
+     * there's no orphan gallery folder and no synchronization operation is left in the journal.
+     * @return true if the final tree is consistent
+     */
+    public synchronized boolean isConsistent() {
+        return missingFolders == 0 && misplacedImages == 0 && danglingLinks == 0 && orphanFolders == 0
+                && unsynchronizedOperations == 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final double seconds = Math.max((endTime > 0 ? endTime : System.currentTimeMillis()) - startTime, 1L) / 1000.0;
+        final StringBuilder sb = new StringBuilder(1024);
+        int total = 0;
+
+        sb.append(String.format("%-22s %8s %8s %10s %10s %10s %10s%n", "operation", "count", "ops/s", "p50 ms",
+                "p99 ms", "conflicts", "failures"));
+
+        for (Map.Entry<String, OperationStats> entry : operationStatsMap.entrySet()) {
+            final OperationStats stats = entry.getValue();
+            total += stats.count;
+            sb.append(String.format("%-22s %8d %8.1f %10.1f %10.1f %10d %10d%n", entry.getKey(), stats.count,
+                    stats.count / seconds, stats.percentileMillis(0.50), stats.percentileMillis(0.99),
+                    stats.conflicts, stats.failures));
+        }
+
+        sb.append(String.format("total: %d operations in %.1fs, %.1f ops/s%n", total, seconds, total / seconds));
+        sb.append(String.format("consistency: %s (documents=%d, missingFolders=%d, misplacedImages=%d, danglingLinks=%d, "
+                + "orphanFolders=%d, unsynchronizedOperations=%d)", isConsistent() ? "OK" : "BROKEN", checkedDocuments,
+                missingFolders, misplacedImages, danglingLinks, orphanFolders, unsynchronizedOperations));
+
+        return sb.toString();
+    }
+
+    private OperationStats getOperationStats(final String operation) {
+        OperationStats stats = operationStatsMap.get(operation);
+
+        if (stats == null) {
+            stats = new OperationStats();
+            operationStatsMap.put(operation, stats);
+        }
+
+        return stats;
+    }
+
+    private static class OperationStats {
+
+        private long [] samples = new long[1024];
+
+        private int count;
+
+        private int conflicts;
+
+        private int failures;
+
+        private void add(final long nanos) {
+            if (count == samples.length) {
+                samples = Arrays.copyOf(samples, count * 2);
+            }
+
+            samples[count++] = nanos;
+        }
+
+        private double percentileMillis(final double quantile) {
+            if (count == 0) {
+                return 0.0;
+            }
+
+            final long [] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            final int index = Math.min(count - 1, Math.max(0, (int) Math.ceil(quantile * count) - 1));
+            return sorted[index] / 1000000.0;
+        }
+    }
+}
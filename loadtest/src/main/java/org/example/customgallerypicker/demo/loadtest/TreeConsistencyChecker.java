@@ -0,0 +1,125 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.loadtest;
+
+import java.util.List;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.commons.lang.StringUtils;
+import org.example.customgallerypicker.demo.repository.util.BinaryFolderUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks that the gallery tree is consistent with the document tree after the load test:
+ * the image of every news document must be in the context gallery folder of the document,
+ * and every gallery folder containing images must correspond to an existing document.
+ */
+public class TreeConsistencyChecker {
+
+    private static Logger log = LoggerFactory.getLogger(TreeConsistencyChecker.class);
+
+    private final Session session;
+
+    private int missingFolders;
+
+    private int misplacedImages;
+
+    private int danglingLinks;
+
+    private int orphanFolders;
+
+    public TreeConsistencyChecker(final Session session) {
+        this.session = session;
+    }
+
+    /**
+     * Checks the documents and the gallery folders under the fixture root folder, and stores the results in the report.
+     * @param rootFolderName fixture root folder name
+     * @param documentIds identifiers of the fixture news document handles
+     * @param report load test report
+     * @throws RepositoryException repository exception
+     */
+    public void check(final String rootFolderName, final List<String> documentIds, final LoadTestReport report)
+            throws RepositoryException {
+        session.refresh(false);
+
+        for (String documentId : documentIds) {
+            checkDocument(session.getNodeByIdentifier(documentId));
+        }
+
+        final String galleryRootPath = BinaryFolderUtils.GALLERY_ROOT_PATH + "/" + rootFolderName;
+
+        if (session.nodeExists(galleryRootPath)) {
+            checkGalleryFolder(session.getNode(galleryRootPath));
+        }
+
+        report.setConsistency(documentIds.size(), missingFolders, misplacedImages, danglingLinks, orphanFolders);
+    }
+
+    private void checkDocument(final Node handleNode) throws RepositoryException {
+        final String binaryFolderPath = BinaryFolderUtils.getBinaryFolderPath(handleNode.getPath());
+
+        if (!session.nodeExists(binaryFolderPath)) {
+            log.warn("Missing gallery folder '{}' of '{}'.", binaryFolderPath, handleNode.getPath());
+            missingFolders++;
+        }
+
+        final Node imageLinkNode = handleNode.getNode(handleNode.getName()).getNode("customgallerypickerdemo:image");
+        final String docbase = imageLinkNode.getProperty("hippo:docbase").getString();
+
+        try {
+            final String imagePath = session.getNodeByIdentifier(docbase).getPath();
+
+            if (!StringUtils.startsWith(imagePath, binaryFolderPath + "/")) {
+                log.warn("Image '{}' of '{}' is not in the gallery folder '{}'.", imagePath, handleNode.getPath(), binaryFolderPath);
+                misplacedImages++;
+            }
+        } catch (ItemNotFoundException e) {
+            log.warn("Dangling image link of '{}' to '{}'.", handleNode.getPath(), docbase);
+            danglingLinks++;
+        }
+    }
+
+    private void checkGalleryFolder(final Node galleryFolderNode) throws RepositoryException {
+        boolean hasImages = false;
+
+        for (NodeIterator nodeIt = galleryFolderNode.getNodes(); nodeIt.hasNext(); ) {
+            final Node childNode = nodeIt.nextNode();
+
+            if (childNode.isNodeType("hippo:handle")) {
+                hasImages = true;
+            } else if (childNode.isNodeType("hippogallery:stdImageGallery")) {
+                checkGalleryFolder(childNode);
+            }
+        }
+
+        if (hasImages) {
+            final String documentPath = BinaryFolderUtils.DOCUMENTS_ROOT_PATH
+                    + StringUtils.removeStart(galleryFolderNode.getPath(), BinaryFolderUtils.GALLERY_ROOT_PATH);
+
+            if (!session.nodeExists(documentPath)) {
+                log.warn("Orphan gallery folder '{}'.", galleryFolderNode.getPath());
+                orphanFolders++;
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.example.customgallerypicker.demo.beans;
+/*
+ * Copyright 2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.io.Serializable;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+
+/**
+ * An entry of the image manifest stored on the published variant at publication time,
+ * describing an image embedded in the rich text content.
+ * <p>
+ * Each entry is stored in the form of "&lt;link name&gt;|&lt;image handle identifier&gt;|&lt;image handle path&gt;|&lt;width&gt;|&lt;height&gt;",
+ * or "&lt;link name&gt;|&lt;image handle path&gt;|&lt;width&gt;|&lt;height&gt;" if published before the identifier was stored.
+ * The image handle path is the path at publication time, which may be stale if the image has been moved since.
+ * </p>
+ */
+public class ImageManifestEntry implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String linkName;
+    private final String handleId;
+    private final String handlePath;
+    private final long width;
+    private final long height;
+
+    public ImageManifestEntry(final String linkName, final String handleId, final String handlePath, final long width, final long height) {
+        this.linkName = linkName;
+        this.handleId = handleId;
+        this.handlePath = handlePath;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Parses the stored image manifest entry.
+     *
+     * @param value stored image manifest entry
+     * @return the parsed entry or null if the value is malformed
+     */
+    public static ImageManifestEntry parse(final String value) {
+        final String [] fields = StringUtils.splitPreserveAllTokens(value, '|');
+
+        if (fields == null || fields.length < 4 || fields.length > 5 || StringUtils.isEmpty(fields[0])) {
+            return null;
+        }
+
+        final int offset = fields.length - 4;
+        final String handleId = (offset > 0 ? StringUtils.defaultIfEmpty(fields[1], null) : null);
+
+        if (!StringUtils.startsWith(fields[1 + offset], "/")) {
+            return null;
+        }
+
+        return new ImageManifestEntry(fields[0], handleId, fields[1 + offset],
+                NumberUtils.toLong(fields[2 + offset]), NumberUtils.toLong(fields[3 + offset]));
+    }
+
+    /**
+     * Get the link node name referred by the image tag in the rich text content.
+     *
+     * @return the link node name
+     */
+    public String getLinkName() {
+        return linkName;
+    }
+
+    /**
+     * Get the image set handle identifier.
+     *
+     * @return the image set handle identifier, or null if not stored
+     */
+    public String getHandleId() {
+        return handleId;
+    }
+
+    /**
+     * Get the image set handle path at publication time.
+     *
+     * @return the image set handle path at publication time
+     */
+    public String getHandlePath() {
+        return handlePath;
+    }
+
+    /**
+     * Get the path of the image variant resource node, e.g. 'hippogallery:original', under the image set handle path.
+     *
+     * @param handlePath image set handle path
+     * @param variantName image variant name
+     * @return the path of the image variant resource node
+     */
+    public static String getVariantPath(final String handlePath, final String variantName) {
+        return handlePath + "/" + StringUtils.substringAfterLast(handlePath, "/") + "/" + variantName;
+    }
+
+    /**
+     * Get the width of the original image.
+     *
+     * @return the width of the original image or 0 if unknown
+     */
+    public long getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the height of the original image.
+     *
+     * @return the height of the original image or 0 if unknown
+     */
+    public long getHeight() {
+        return height;
+    }
+
+}
@@ -14,8 +14,12 @@ package org.example.customgallerypicker.demo.beans;
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
 
+import org.example.customgallerypicker.demo.metrics.RequestMetrics;
 import org.hippoecm.hst.content.beans.Node;
 import org.hippoecm.hst.content.beans.standard.HippoDocument;
 import org.hippoecm.hst.content.beans.standard.HippoGalleryImageSet;
@@ -39,6 +43,9 @@ public class NewsDocument extends HippoDocument {
     private final static String LOCATION = "customgallerypickerdemo:location";
     private final static String AUTHOR = "customgallerypickerdemo:author";
     private final static String SOURCE = "customgallerypickerdemo:source";
+    private final static String IMAGE_MANIFEST = "customgallerypickerdemo:imagemanifest";
+
+    private List<ImageManifestEntry> imageManifest;
 
     /**
      * Get the title of the document.
@@ -77,7 +84,10 @@ public class NewsDocument extends HippoDocument {
      */
     @HippoEssentialsGenerated(internalName = "customgallerypickerdemo:image")
     public HippoGalleryImageSet getImage() {
-        return getLinkedBean(IMAGE, HippoGalleryImageSet.class);
+        final long start = System.nanoTime();
+        final HippoGalleryImageSet image = getLinkedBean(IMAGE, HippoGalleryImageSet.class);
+        RequestMetrics.imageResolved(start, image != null);
+        return image;
     }
 
     /**
@@ -87,7 +97,10 @@ public class NewsDocument extends HippoDocument {
      */
     @HippoEssentialsGenerated(internalName = "customgallerypickerdemo:content")
     public HippoHtml getContent() {
-        return getHippoHtml(CONTENT);
+        final long start = System.nanoTime();
+        final HippoHtml content = getHippoHtml(CONTENT);
+        RequestMetrics.contentResolved(start);
+        return content;
     }
 
     /**
@@ -120,5 +133,35 @@ public class NewsDocument extends HippoDocument {
         return getProperty(SOURCE);
     }
 
-}
+    /**
+     * Get the manifest of the images embedded in the main content,
+     * which is stored on the published variant at publication time.
+     *
+     * @return the image manifest entries, or an empty list if no manifest is stored (e.g. in preview)
+     */
+    public List<ImageManifestEntry> getImageManifest() {
+        if (imageManifest == null) {
+            final String [] values = getProperty(IMAGE_MANIFEST);
+
+            if (values == null || values.length == 0) {
+                imageManifest = Collections.emptyList();
+            } else {
+                final List<ImageManifestEntry> entries = new ArrayList<ImageManifestEntry>(values.length);
+                ImageManifestEntry entry;
 
+                for (String value : values) {
+                    entry = ImageManifestEntry.parse(value);
+
+                    if (entry != null) {
+                        entries.add(entry);
+                    }
+                }
+
+                imageManifest = Collections.unmodifiableList(entries);
+            }
+        }
+
+        return imageManifest;
+    }
+
+}
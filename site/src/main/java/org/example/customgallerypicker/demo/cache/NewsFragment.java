@@ -0,0 +1,104 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.cache;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable rendered news article fragment, holding the resolved image link
+ * and the link-rewritten rich text content, together with the repository paths it depends on.
+ */
+public class NewsFragment implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Resolved link URL of the original image of the news image link field. Null if no image is linked.
+     */
+    private final String imageUrl;
+
+    /**
+     * File name of the news image. Null if no image is linked.
+     */
+    private final String imageFileName;
+
+    /**
+     * Description of the news image. Null if no image is linked or it has no description.
+     */
+    private final String imageDescription;
+
+    /**
+     * Link rewritten HTML of the rich text content field. Null if there's no content.
+     */
+    private final String content;
+
+    /**
+     * Link URLs of the images worth a preload hint.
+     */
+    private final String [] preloadImageUrls;
+
+    /**
+     * Repository paths (document handle path and image handle paths) this fragment depends on.
+     */
+    private final String [] dependencyPaths;
+
+    /**
+     * Constructor.
+     * @param imageUrl resolved link URL of the news image
+     * @param imageFileName file name of the news image
+     * @param imageDescription description of the news image
+     * @param content link rewritten HTML of the rich text content
+     * @param preloadImageUrls link URLs of the images worth a preload hint
+     * @param dependencyPaths repository paths this fragment depends on
+     */
+    public NewsFragment(final String imageUrl, final String imageFileName, final String imageDescription,
+            final String content, final Collection<String> preloadImageUrls, final Collection<String> dependencyPaths) {
+        this.imageUrl = imageUrl;
+        this.imageFileName = imageFileName;
+        this.imageDescription = imageDescription;
+        this.content = content;
+        this.preloadImageUrls = preloadImageUrls.toArray(new String[preloadImageUrls.size()]);
+        this.dependencyPaths = dependencyPaths.toArray(new String[dependencyPaths.size()]);
+    }
+
+    public String getImageUrl() {
+        return imageUrl;
+    }
+
+    public String getImageFileName() {
+        return imageFileName;
+    }
+
+    public String getImageDescription() {
+        return imageDescription;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public List<String> getPreloadImageUrls() {
+        return Collections.unmodifiableList(Arrays.asList(preloadImageUrls));
+    }
+
+    public List<String> getDependencyPaths() {
+        return Collections.unmodifiableList(Arrays.asList(dependencyPaths));
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.cache;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded, least-recently-used cache of rendered news article fragments.
+ * <p>
+ * Each entry is keyed by the document handle identifier, the document variant identifier, the locale
+ * and the mount which the links were rewritten for, and it keeps the repository paths it depends on
+ * (the document handle path and the handle paths of every referenced gallery image).
+ * The cache keys are indexed by those dependency paths.
+ * </p>
+ * <p>
+ * {@link #invalidate(String)} is invoked by {@link NewsFragmentCacheInvalidator} on every repository event
+ * and evicts all the entries depending on the changed path, on any of its descendants or on any of its ancestors,
+ * looking up only the ancestors of the changed path and the indexed paths under it.
+ * So, when a gallery folder is moved by <code>BinaryPathUpdaterModule</code>, all the articles referencing
+ * an image in the folder are evicted as well.
+ * </p>
+ * <p>
+ * A fragment rendered on a cache miss is stored only if nothing was invalidated since the miss
+ * (see {@link #getGeneration()} and {@link #put(String, NewsFragment, long)}), so a fragment rendered
+ * from the repository state before a change can never be cached after the change was invalidated.
+ * </p>
+ */
+public class NewsFragmentCache {
+
+    private static Logger log = LoggerFactory.getLogger(NewsFragmentCache.class);
+
+    /**
+     * Default maximum number of the cached fragments.
+     */
+    private static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    /**
+     * Access ordered map to evict the least recently used entry when the maximum size is exceeded.
+     */
+    private final Map<String, NewsFragment> fragments;
+
+    /**
+     * Cache keys by each dependency path, sorted to look up the paths under a changed path by range.
+     */
+    private final TreeMap<String, Set<String>> keysByDependencyPath = new TreeMap<String, Set<String>>();
+
+    /**
+     * Incremented on every invalidation.
+     */
+    private long generation;
+
+    /**
+     * Default constructor.
+     */
+    public NewsFragmentCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Constructor.
+     * @param maxEntries the maximum number of the cached fragments
+     */
+    public NewsFragmentCache(final int maxEntries) {
+        fragments = new LinkedHashMap<String, NewsFragment>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, NewsFragment> eldest) {
+                if (size() > maxEntries) {
+                    unindex(eldest.getKey(), eldest.getValue());
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Creates a cache key from the given key parts.
+     * @param handleIdentifier document handle node identifier
+     * @param variantIdentifier document variant node identifier
+     * @param locale locale string
+     * @param mountIdentifier identifier of the mount which links are rewritten for
+     * @return cache key
+     */
+    public static String createKey(final String handleIdentifier, final String variantIdentifier,
+            final String locale, final String mountIdentifier) {
+        return new StringBuilder(160).append(handleIdentifier).append('|').append(variantIdentifier).append('|')
+                .append(StringUtils.defaultString(locale)).append('|').append(mountIdentifier).toString();
+    }
+
+    /**
+     * Returns the cached fragment by the key or null if not cached.
+     * @param key cache key
+     * @return the cached fragment by the key or null if not cached
+     */
+    public synchronized NewsFragment get(final String key) {
+        return fragments.get(key);
+    }
+
+    /**
+     * Returns the current invalidation generation.
+     * Read this before rendering a fragment on a cache miss and pass it to {@link #put(String, NewsFragment, long)}.
+     * @return the current invalidation generation
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Stores the fragment by the key unless anything was invalidated since the {@code renderGeneration}.
+     * @param key cache key
+     * @param fragment rendered fragment
+     * @param renderGeneration the {@link #getGeneration()} value read before rendering the fragment
+     * @return true if stored
+     */
+    public synchronized boolean put(final String key, final NewsFragment fragment, final long renderGeneration) {
+        if (renderGeneration != generation) {
+            log.debug("Not caching news fragment '{}' rendered before an invalidation.", key);
+            return false;
+        }
+
+        final NewsFragment old = fragments.put(key, fragment);
+
+        if (old != null) {
+            unindex(key, old);
+        }
+
+        for (String dependencyPath : fragment.getDependencyPaths()) {
+            Set<String> keys = keysByDependencyPath.get(dependencyPath);
+
+            if (keys == null) {
+                keys = new HashSet<String>();
+                keysByDependencyPath.put(dependencyPath, keys);
+            }
+
+            keys.add(key);
+        }
+
+        return true;
+    }
+
+    /**
+     * Evicts all the cached fragments depending on the given repository path,
+     * on any of its descendants or on any of its ancestors.
+     * @param path the changed repository node or property path
+     */
+    public synchronized void invalidate(final String path) {
+        if (StringUtils.isEmpty(path)) {
+            return;
+        }
+
+        ++generation;
+
+        if (fragments.isEmpty()) {
+            return;
+        }
+
+        final Set<String> keys = new HashSet<String>();
+
+        // the path itself and its ancestors
+        for (String ancestorPath = path; StringUtils.isNotEmpty(ancestorPath);
+                ancestorPath = StringUtils.substringBeforeLast(ancestorPath, "/")) {
+            addKeys(keysByDependencyPath.get(ancestorPath), keys);
+        }
+
+        // the descendants
+        final SortedMap<String, Set<String>> descendants = keysByDependencyPath.subMap(path + "/", path + "/\uffff");
+
+        for (Set<String> descendantKeys : descendants.values()) {
+            addKeys(descendantKeys, keys);
+        }
+
+        NewsFragment fragment;
+
+        for (String key : keys) {
+            fragment = fragments.remove(key);
+
+            if (fragment != null) {
+                log.debug("Evicting news fragment '{}' on the change at '{}'.", key, path);
+                unindex(key, fragment);
+            }
+        }
+    }
+
+    /**
+     * Evicts all the cached fragments.
+     */
+    public synchronized void clear() {
+        ++generation;
+        fragments.clear();
+        keysByDependencyPath.clear();
+    }
+
+    /**
+     * Returns the number of the cached fragments.
+     * @return the number of the cached fragments
+     */
+    public synchronized int size() {
+        return fragments.size();
+    }
+
+    private void unindex(final String key, final NewsFragment fragment) {
+        Set<String> keys;
+
+        for (String dependencyPath : fragment.getDependencyPaths()) {
+            keys = keysByDependencyPath.get(dependencyPath);
+
+            if (keys != null) {
+                keys.remove(key);
+
+                if (keys.isEmpty()) {
+                    keysByDependencyPath.remove(dependencyPath);
+                }
+            }
+        }
+    }
+
+    private static void addKeys(final Set<String> source, final Set<String> target) {
+        if (source != null) {
+            target.addAll(source);
+        }
+    }
+}
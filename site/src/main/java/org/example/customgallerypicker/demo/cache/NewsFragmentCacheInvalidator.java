@@ -0,0 +1,65 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.cache;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JCR observation {@link EventListener} evicting the {@link NewsFragmentCache} entries
+ * depending on the path of each repository event.
+ * <p>
+ * This is registered through <code>customJcrObservationEventListenerItems</code> in the HST assembly overrides,
+ * listening to the events under both <code>/content/documents</code> and <code>/content/gallery</code>.
+ * Node moves are delivered as a removal at the source path and an addition at the destination path,
+ * so gallery folder moves by <code>BinaryPathUpdaterModule</code> evict the referencing articles, too.
+ * </p>
+ */
+public class NewsFragmentCacheInvalidator implements EventListener {
+
+    private static Logger log = LoggerFactory.getLogger(NewsFragmentCacheInvalidator.class);
+
+    private NewsFragmentCache newsFragmentCache;
+
+    public void setNewsFragmentCache(NewsFragmentCache newsFragmentCache) {
+        this.newsFragmentCache = newsFragmentCache;
+    }
+
+    @Override
+    public void onEvent(EventIterator events) {
+        if (newsFragmentCache == null) {
+            return;
+        }
+
+        Event event;
+
+        while (events.hasNext()) {
+            event = events.nextEvent();
+
+            try {
+                newsFragmentCache.invalidate(event.getPath());
+            } catch (RepositoryException e) {
+                log.warn("Cannot read the event path. Clearing all the news fragments.", e);
+                newsFragmentCache.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.components;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.lang.StringUtils;
+import org.example.customgallerypicker.demo.beans.ImageManifestEntry;
+import org.example.customgallerypicker.demo.beans.NewsDocument;
+import org.example.customgallerypicker.demo.cache.NewsFragment;
+import org.example.customgallerypicker.demo.cache.NewsFragmentCache;
+import org.example.customgallerypicker.demo.metrics.RequestMetrics;
+import org.example.customgallerypicker.demo.rewriter.ImageManifestContentRewriter;
+import org.hippoecm.hst.content.beans.standard.HippoBean;
+import org.hippoecm.hst.content.beans.standard.HippoGalleryImageSet;
+import org.hippoecm.hst.content.beans.standard.HippoHtml;
+import org.hippoecm.hst.content.rewriter.ContentRewriter;
+import org.hippoecm.hst.content.rewriter.impl.SimpleContentRewriter;
+import org.hippoecm.hst.core.component.HstRequest;
+import org.hippoecm.hst.core.component.HstResponse;
+import org.hippoecm.hst.core.linking.HstLink;
+import org.hippoecm.hst.core.request.HstRequestContext;
+import org.hippoecm.hst.site.HstServices;
+import org.onehippo.cms7.essentials.components.EssentialsContentComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link EssentialsContentComponent} extension for the <code>newspage-main</code> component
+ * which resolves the news image link, file name and description and rewrites the links in the rich text content only once
+ * per document variant, locale and mount, and serves the rendered fragment from {@link NewsFragmentCache} afterward.
+ * <p>
+ * The rendered fragment is set to the <code>fragment</code> request attribute.
+ * If the published variant has the image manifest stored at publication time,
+ * the embedded images are resolved from the manifest by {@link ImageManifestContentRewriter}
+ * instead of reading each docbase from the repository, and only the images missing from the manifest are looked up.
+ * The cache entries are evicted by repository events on the document handle and on the referenced gallery images.
+ * Channel manager requests always bypass the cache.
+ * </p>
+ * <p>
+ * The render time, the fragment cache hits and misses and the linked node lookups are recorded in {@link RequestMetrics}.
+ * </p>
+ */
+public class NewsContentComponent extends EssentialsContentComponent {
+
+    private static Logger log = LoggerFactory.getLogger(NewsContentComponent.class);
+
+    /**
+     * Request attribute name of the rendered {@link NewsFragment}.
+     */
+    public static final String FRAGMENT_ATTR = "fragment";
+
+    @Override
+    public void doBeforeRender(HstRequest request, HstResponse response) {
+        final long start = System.nanoTime();
+
+        try {
+            super.doBeforeRender(request, response);
+            setFragment(request);
+        } finally {
+            RequestMetrics.pageRendered(start);
+        }
+    }
+
+    /**
+     * Sets the rendered fragment of the news document to the {@link #FRAGMENT_ATTR} request attribute,
+     * from the cache if possible.
+     * @param request request
+     */
+    private void setFragment(final HstRequest request) {
+        final HstRequestContext requestContext = request.getRequestContext();
+        final HippoBean contentBean = requestContext.getContentBean();
+
+        if (!(contentBean instanceof NewsDocument)) {
+            return;
+        }
+
+        final NewsDocument document = (NewsDocument) contentBean;
+        final NewsFragmentCache cache = getNewsFragmentCache();
+
+        if (cache == null || requestContext.isCmsRequest()) {
+            request.setAttribute(FRAGMENT_ATTR, renderFragment(requestContext, document));
+            return;
+        }
+
+        try {
+            final Node variantNode = document.getNode();
+            final Locale locale = requestContext.getPreferredLocale();
+            final String key = NewsFragmentCache.createKey(variantNode.getParent().getIdentifier(),
+                    variantNode.getIdentifier(), locale != null ? locale.toString() : null,
+                    requestContext.getResolvedMount().getMount().getIdentifier());
+
+            NewsFragment fragment = cache.get(key);
+            RequestMetrics.fragmentCacheLookup(fragment != null);
+
+            if (fragment == null) {
+                final long generation = cache.getGeneration();
+                fragment = renderFragment(requestContext, document);
+                cache.put(key, fragment, generation);
+            }
+
+            request.setAttribute(FRAGMENT_ATTR, fragment);
+        } catch (RepositoryException e) {
+            log.error("Repository exception while reading the news document identifiers.", e);
+            request.setAttribute(FRAGMENT_ATTR, renderFragment(requestContext, document));
+        }
+    }
+
+    /**
+     * Resolves the image link and rewrites the rich text content of the {@code document}.
+     * @param requestContext request context
+     * @param document news document
+     * @return rendered fragment
+     */
+    protected NewsFragment renderFragment(final HstRequestContext requestContext, final NewsDocument document) {
+        final Set<String> dependencyPaths = new LinkedHashSet<String>();
+        final Set<String> preloadImageUrls = new LinkedHashSet<String>();
+        dependencyPaths.add(StringUtils.substringBeforeLast(document.getPath(), "/"));
+
+        String imageUrl = null;
+        String imageFileName = null;
+        String imageDescription = null;
+        final HippoGalleryImageSet image = document.getImage();
+
+        if (image != null && image.getOriginal() != null) {
+            dependencyPaths.add(StringUtils.substringBeforeLast(image.getPath(), "/"));
+            imageFileName = image.getFileName();
+            imageDescription = image.getDescription();
+            final HstLink imageLink = requestContext.getHstLinkCreator().create(image.getOriginal(), requestContext);
+
+            if (imageLink != null) {
+                imageUrl = imageLink.toUrlForm(requestContext, false);
+                preloadImageUrls.add(imageUrl);
+            }
+        }
+
+        String content = null;
+        final HippoHtml html = document.getContent();
+
+        if (html != null && html.getContent() != null) {
+            final List<ImageManifestEntry> imageManifest = document.getImageManifest();
+            final ContentRewriter<String> contentRewriter = createContentRewriter(imageManifest);
+            content = contentRewriter.rewrite(html.getContent(), html.getNode(), requestContext);
+
+            if (contentRewriter instanceof ImageManifestContentRewriter) {
+                final ImageManifestContentRewriter manifestRewriter = (ImageManifestContentRewriter) contentRewriter;
+                final List<String> resolvedImageUrls = manifestRewriter.getResolvedImageUrls();
+
+                if (!resolvedImageUrls.isEmpty()) {
+                    preloadImageUrls.add(resolvedImageUrls.get(0));
+                }
+
+                dependencyPaths.addAll(manifestRewriter.getResolvedHandlePaths());
+
+                // only the links not found in the manifest are resolved from the link nodes
+                for (String linkName : manifestRewriter.getUnresolvedLinkNames()) {
+                    addLinkedHandlePath(requestContext, html.getNode(), linkName, dependencyPaths);
+                }
+            } else {
+                addLinkedHandlePaths(requestContext, html.getNode(), dependencyPaths);
+            }
+        }
+
+        return new NewsFragment(imageUrl, imageFileName, imageDescription, content, preloadImageUrls, dependencyPaths);
+    }
+
+    /**
+     * Creates the content rewriter to rewrite links in the rich text content.
+     * @param imageManifest the image manifest entries stored on the document
+     * @return content rewriter
+     */
+    protected ContentRewriter<String> createContentRewriter(final List<ImageManifestEntry> imageManifest) {
+        if (imageManifest.isEmpty()) {
+            return new SimpleContentRewriter();
+        }
+
+        return new ImageManifestContentRewriter(imageManifest);
+    }
+
+    /**
+     * Adds the handle paths of the nodes linked from the {@code hippo:facetselect} child nodes of the {@code htmlNode}.
+     * @param requestContext request context
+     * @param htmlNode {@code hippostd:html} node
+     * @param dependencyPaths path set to add the linked handle paths to
+     */
+    private void addLinkedHandlePaths(final HstRequestContext requestContext, final Node htmlNode, final Set<String> dependencyPaths) {
+        try {
+            Node linkNode;
+            String docbase;
+
+            for (NodeIterator nodeIt = htmlNode.getNodes(); nodeIt.hasNext(); ) {
+                linkNode = nodeIt.nextNode();
+
+                if (linkNode != null && linkNode.isNodeType("hippo:facetselect") && linkNode.hasProperty("hippo:docbase")) {
+                    docbase = linkNode.getProperty("hippo:docbase").getString();
+
+                    try {
+                        RequestMetrics.repositoryRead(1);
+                        dependencyPaths.add(requestContext.getSession().getNodeByIdentifier(docbase).getPath());
+                    } catch (ItemNotFoundException e) {
+                        log.debug("Cannot find the linked node by docbase: {}", docbase);
+                    }
+                }
+            }
+        } catch (RepositoryException e) {
+            log.error("Repository exception while reading the linked nodes of the rich text content.", e);
+        }
+    }
+
+    /**
+     * Adds the handle path of the node linked from the {@code hippo:facetselect} child node named {@code linkName}
+     * of the {@code htmlNode}.
+     * @param requestContext request context
+     * @param htmlNode {@code hippostd:html} node
+     * @param linkName link node name
+     * @param dependencyPaths path set to add the linked handle path to
+     */
+    private void addLinkedHandlePath(final HstRequestContext requestContext, final Node htmlNode, final String linkName,
+            final Set<String> dependencyPaths) {
+        try {
+            if (!htmlNode.hasNode(linkName)) {
+                return;
+            }
+
+            final Node linkNode = htmlNode.getNode(linkName);
+
+            if (linkNode.isNodeType("hippo:facetselect") && linkNode.hasProperty("hippo:docbase")) {
+                final String docbase = linkNode.getProperty("hippo:docbase").getString();
+
+                try {
+                    RequestMetrics.repositoryRead(1);
+                    dependencyPaths.add(requestContext.getSession().getNodeByIdentifier(docbase).getPath());
+                } catch (ItemNotFoundException e) {
+                    log.debug("Cannot find the linked node by docbase: {}", docbase);
+                }
+            }
+        } catch (RepositoryException e) {
+            log.error("Repository exception while reading the linked node '{}' of the rich text content.", linkName, e);
+        }
+    }
+
+    private NewsFragmentCache getNewsFragmentCache() {
+        return HstServices.getComponentManager().getComponent(NewsFragmentCache.class.getName());
+    }
+}
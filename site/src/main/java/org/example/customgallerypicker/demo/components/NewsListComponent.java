@@ -0,0 +1,59 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.components;
+
+import org.example.customgallerypicker.demo.metrics.RequestMetrics;
+import org.hippoecm.hst.core.component.HstRequest;
+import org.hippoecm.hst.core.component.HstResponse;
+import org.onehippo.cms7.essentials.components.EssentialsNewsComponent;
+import org.onehippo.cms7.essentials.components.paging.Pageable;
+
+/**
+ * {@link EssentialsNewsComponent} extension for the news list components which records the render time,
+ * the number of results per page and an estimate of the repository reads of the query and of the result beans
+ * in {@link RequestMetrics}.
+ * <p>
+ * The query and the result beans are read inside {@link EssentialsNewsComponent}, so their reads can't be counted
+ * where they are made and are estimated as one for the query and one for each result bean on the page.
+ * The image and content reads made by the template on each result bean are counted by the bean accessors.
+ * </p>
+ */
+public class NewsListComponent extends EssentialsNewsComponent {
+
+    /**
+     * Request attribute name of the {@link Pageable} set by {@link EssentialsNewsComponent}.
+     */
+    private static final String PAGEABLE_ATTR = "pageable";
+
+    @Override
+    public void doBeforeRender(HstRequest request, HstResponse response) {
+        final long start = System.nanoTime();
+        int results = 0;
+
+        try {
+            super.doBeforeRender(request, response);
+
+            final Object pageable = request.getAttribute(PAGEABLE_ATTR);
+
+            if (pageable instanceof Pageable) {
+                results = ((Pageable<?>) pageable).getItems().size();
+                RequestMetrics.listReadsEstimated(results);
+            }
+        } finally {
+            RequestMetrics.listRendered(start, results);
+        }
+    }
+}
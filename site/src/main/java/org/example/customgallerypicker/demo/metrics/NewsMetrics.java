@@ -0,0 +1,200 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Totals of the news rendering metrics of all the requests since the start or the last {@link #reset()},
+ * exposed through JMX as <code>org.example.customgallerypicker.demo:type=NewsMetrics</code>.
+ * <p>
+ * The averages per request (e.g. {@link #getAverageRepositoryReadsPerRequest()}) are over the requests
+ * which rendered news, so a growing number of repository reads per request with the list size
+ * reveals an N+1 pattern, and the fragment cache hit ratio tells how much the fragment cache saves.
+ * </p>
+ */
+public class NewsMetrics implements NewsMetricsMBean {
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private final AtomicLong repositoryReads = new AtomicLong();
+
+    private final AtomicLong estimatedListReads = new AtomicLong();
+
+    private final AtomicLong imageCalls = new AtomicLong();
+
+    private final AtomicLong imageNanos = new AtomicLong();
+
+    private final AtomicLong contentCalls = new AtomicLong();
+
+    private final AtomicLong contentNanos = new AtomicLong();
+
+    private final AtomicLong linkedBeanResolutions = new AtomicLong();
+
+    private final AtomicLong linkedBeanMisses = new AtomicLong();
+
+    private final AtomicLong listRenders = new AtomicLong();
+
+    private final AtomicLong listRenderNanos = new AtomicLong();
+
+    private final AtomicLong listResults = new AtomicLong();
+
+    private final AtomicLong pageRenders = new AtomicLong();
+
+    private final AtomicLong pageRenderNanos = new AtomicLong();
+
+    private final AtomicLong fragmentCacheHits = new AtomicLong();
+
+    private final AtomicLong fragmentCacheMisses = new AtomicLong();
+
+    /**
+     * Adds the metrics of a request to the totals.
+     * @param metrics request metrics
+     */
+    public void record(final RequestMetrics metrics) {
+        requests.incrementAndGet();
+        repositoryReads.addAndGet(metrics.repositoryReads);
+        estimatedListReads.addAndGet(metrics.estimatedListReads);
+        imageCalls.addAndGet(metrics.imageCalls);
+        imageNanos.addAndGet(metrics.imageNanos);
+        contentCalls.addAndGet(metrics.contentCalls);
+        contentNanos.addAndGet(metrics.contentNanos);
+        linkedBeanResolutions.addAndGet(metrics.linkedBeanResolutions);
+        linkedBeanMisses.addAndGet(metrics.linkedBeanMisses);
+        listRenders.addAndGet(metrics.listRenders);
+        listRenderNanos.addAndGet(metrics.listRenderNanos);
+        listResults.addAndGet(metrics.listResults);
+        pageRenders.addAndGet(metrics.pageRenders);
+        pageRenderNanos.addAndGet(metrics.pageRenderNanos);
+        fragmentCacheHits.addAndGet(metrics.fragmentCacheHits);
+        fragmentCacheMisses.addAndGet(metrics.fragmentCacheMisses);
+    }
+
+    @Override
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    @Override
+    public long getRepositoryReadCount() {
+        return repositoryReads.get();
+    }
+
+    @Override
+    public double getAverageRepositoryReadsPerRequest() {
+        return average(repositoryReads.get(), requests.get());
+    }
+
+    @Override
+    public long getEstimatedListReadCount() {
+        return estimatedListReads.get();
+    }
+
+    @Override
+    public long getImageCallCount() {
+        return imageCalls.get();
+    }
+
+    @Override
+    public double getAverageImageCallMillis() {
+        return average(imageNanos.get(), imageCalls.get()) / 1e6;
+    }
+
+    @Override
+    public long getContentCallCount() {
+        return contentCalls.get();
+    }
+
+    @Override
+    public double getAverageContentCallMillis() {
+        return average(contentNanos.get(), contentCalls.get()) / 1e6;
+    }
+
+    @Override
+    public long getLinkedBeanResolutionCount() {
+        return linkedBeanResolutions.get();
+    }
+
+    @Override
+    public long getLinkedBeanMissCount() {
+        return linkedBeanMisses.get();
+    }
+
+    @Override
+    public long getListRenderCount() {
+        return listRenders.get();
+    }
+
+    @Override
+    public double getAverageListRenderMillis() {
+        return average(listRenderNanos.get(), listRenders.get()) / 1e6;
+    }
+
+    @Override
+    public double getAverageListResultsPerPage() {
+        return average(listResults.get(), listRenders.get());
+    }
+
+    @Override
+    public long getPageRenderCount() {
+        return pageRenders.get();
+    }
+
+    @Override
+    public double getAveragePageRenderMillis() {
+        return average(pageRenderNanos.get(), pageRenders.get()) / 1e6;
+    }
+
+    @Override
+    public long getFragmentCacheHitCount() {
+        return fragmentCacheHits.get();
+    }
+
+    @Override
+    public long getFragmentCacheMissCount() {
+        return fragmentCacheMisses.get();
+    }
+
+    @Override
+    public double getFragmentCacheHitRatio() {
+        final long hits = fragmentCacheHits.get();
+        return average(hits, hits + fragmentCacheMisses.get());
+    }
+
+    @Override
+    public void reset() {
+        requests.set(0L);
+        repositoryReads.set(0L);
+        estimatedListReads.set(0L);
+        imageCalls.set(0L);
+        imageNanos.set(0L);
+        contentCalls.set(0L);
+        contentNanos.set(0L);
+        linkedBeanResolutions.set(0L);
+        linkedBeanMisses.set(0L);
+        listRenders.set(0L);
+        listRenderNanos.set(0L);
+        listResults.set(0L);
+        pageRenders.set(0L);
+        pageRenderNanos.set(0L);
+        fragmentCacheHits.set(0L);
+        fragmentCacheMisses.set(0L);
+    }
+
+    private static double average(final long total, final long count) {
+        return (count > 0L ? (double) total / count : 0.0);
+    }
+}
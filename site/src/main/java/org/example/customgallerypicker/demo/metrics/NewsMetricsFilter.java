@@ -0,0 +1,149 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.metrics;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.apache.commons.lang.BooleanUtils;
+import org.hippoecm.hst.core.container.ComponentManager;
+import org.hippoecm.hst.site.HstServices;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Servlet filter collecting the {@link RequestMetrics} of each request and adding them to the {@link NewsMetrics} totals.
+ * <p>
+ * It must be mapped before the <code>HstFilter</code>. If the <code>debugHeader</code> init parameter is true
+ * (default false), the request metrics are also returned in the {@link #DEBUG_HEADER_NAME} response header.
+ * As the HST aggregates the component output before writing the response, the header is set when the response
+ * body is first written, after all the components have rendered.
+ * </p>
+ */
+public class NewsMetricsFilter implements Filter {
+
+    private static Logger log = LoggerFactory.getLogger(NewsMetricsFilter.class);
+
+    /**
+     * Debug response header name.
+     */
+    public static final String DEBUG_HEADER_NAME = "X-News-Metrics";
+
+    private boolean debugHeader;
+
+    private NewsMetrics newsMetrics;
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        debugHeader = BooleanUtils.toBoolean(filterConfig.getInitParameter("debugHeader"));
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        final RequestMetrics metrics = RequestMetrics.begin();
+
+        try {
+            if (debugHeader && response instanceof HttpServletResponse) {
+                chain.doFilter(request, new DebugHeaderResponseWrapper((HttpServletResponse) response, metrics));
+            } else {
+                chain.doFilter(request, response);
+            }
+        } finally {
+            metrics.end();
+
+            if (!metrics.isEmpty()) {
+                final NewsMetrics totals = getNewsMetrics();
+
+                if (totals != null) {
+                    totals.record(metrics);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    private NewsMetrics getNewsMetrics() {
+        if (newsMetrics == null) {
+            final ComponentManager componentManager = HstServices.getComponentManager();
+
+            if (componentManager == null) {
+                return null;
+            }
+
+            try {
+                newsMetrics = componentManager.getComponent(NewsMetrics.class.getName());
+            } catch (Exception e) {
+                log.warn("Cannot find the news metrics component: {}", e.toString());
+            }
+        }
+
+        return newsMetrics;
+    }
+
+    /**
+     * Response wrapper setting the debug header just before the response body is written.
+     */
+    private static class DebugHeaderResponseWrapper extends HttpServletResponseWrapper {
+
+        private final RequestMetrics metrics;
+
+        private boolean headerSet;
+
+        private DebugHeaderResponseWrapper(final HttpServletResponse response, final RequestMetrics metrics) {
+            super(response);
+            this.metrics = metrics;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            setDebugHeader();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            setDebugHeader();
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            setDebugHeader();
+            super.flushBuffer();
+        }
+
+        private void setDebugHeader() {
+            if (!headerSet && !isCommitted()) {
+                headerSet = true;
+                setHeader(DEBUG_HEADER_NAME, metrics.toHeaderValue());
+            }
+        }
+    }
+}
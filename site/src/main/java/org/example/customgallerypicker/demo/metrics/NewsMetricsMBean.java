@@ -0,0 +1,67 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.metrics;
+
+/**
+ * JMX management interface of {@link NewsMetrics}.
+ */
+public interface NewsMetricsMBean {
+
+    long getRequestCount();
+
+    long getRepositoryReadCount();
+
+    double getAverageRepositoryReadsPerRequest();
+
+    /**
+     * Returns the estimated repository reads of the news list queries: one for each query
+     * and one for each result bean on the page. Not included in {@link #getRepositoryReadCount()},
+     * which only counts the reads made by the instrumented code.
+     * @return the estimated repository reads of the news list queries
+     */
+    long getEstimatedListReadCount();
+
+    long getImageCallCount();
+
+    double getAverageImageCallMillis();
+
+    long getContentCallCount();
+
+    double getAverageContentCallMillis();
+
+    long getLinkedBeanResolutionCount();
+
+    long getLinkedBeanMissCount();
+
+    long getListRenderCount();
+
+    double getAverageListRenderMillis();
+
+    double getAverageListResultsPerPage();
+
+    long getPageRenderCount();
+
+    double getAveragePageRenderMillis();
+
+    long getFragmentCacheHitCount();
+
+    long getFragmentCacheMissCount();
+
+    double getFragmentCacheHitRatio();
+
+    void reset();
+
+}
@@ -0,0 +1,211 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.metrics;
+
+import java.util.Locale;
+
+/**
+ * News rendering metrics of the current request, bound to the request processing thread
+ * by {@link NewsMetricsFilter} and recorded by the news document bean accessors and the news components.
+ * <p>
+ * The recording methods are static and do nothing if no request metrics are bound to the current thread
+ * (e.g. in a REST call outside the filter), so the callers don't have to check.
+ * </p>
+ * <p>
+ * The repository reads are the reads counted where the instrumented code makes them: the linked bean resolutions,
+ * the rich text field reads and the linked node lookups. The reads of the news list queries happen inside
+ * the essentials list component, so they are recorded separately as an estimate of one read for the query
+ * and one for each result bean on the page.
+ * </p>
+ */
+public class RequestMetrics {
+
+    private static final ThreadLocal<RequestMetrics> CURRENT = new ThreadLocal<RequestMetrics>();
+
+    private final long startNanos = System.nanoTime();
+
+    private long requestNanos;
+
+    int imageCalls;
+
+    long imageNanos;
+
+    int contentCalls;
+
+    long contentNanos;
+
+    int linkedBeanResolutions;
+
+    int linkedBeanMisses;
+
+    int repositoryReads;
+
+    int estimatedListReads;
+
+    int listRenders;
+
+    long listRenderNanos;
+
+    int listResults;
+
+    int pageRenders;
+
+    long pageRenderNanos;
+
+    int fragmentCacheHits;
+
+    int fragmentCacheMisses;
+
+    /**
+     * Binds new request metrics to the current thread.
+     * @return the new request metrics
+     */
+    static RequestMetrics begin() {
+        final RequestMetrics metrics = new RequestMetrics();
+        CURRENT.set(metrics);
+        return metrics;
+    }
+
+    /**
+     * Unbinds the request metrics from the current thread.
+     */
+    void end() {
+        if (requestNanos == 0L) {
+            requestNanos = System.nanoTime() - startNanos;
+        }
+
+        CURRENT.remove();
+    }
+
+    /**
+     * Returns the request metrics bound to the current thread.
+     * @return the request metrics bound to the current thread, or null if none
+     */
+    public static RequestMetrics current() {
+        return CURRENT.get();
+    }
+
+    public static void imageResolved(final long startNanos, final boolean found) {
+        final RequestMetrics metrics = CURRENT.get();
+
+        if (metrics != null) {
+            metrics.imageCalls++;
+            metrics.imageNanos += System.nanoTime() - startNanos;
+            metrics.linkedBeanResolved(found);
+        }
+    }
+
+    public static void contentResolved(final long startNanos) {
+        final RequestMetrics metrics = CURRENT.get();
+
+        if (metrics != null) {
+            metrics.contentCalls++;
+            metrics.contentNanos += System.nanoTime() - startNanos;
+            metrics.repositoryReads++;
+        }
+    }
+
+    public static void repositoryRead(final int reads) {
+        final RequestMetrics metrics = CURRENT.get();
+
+        if (metrics != null) {
+            metrics.repositoryReads += reads;
+        }
+    }
+
+    /**
+     * Records the estimated repository reads of a news list query: one for the query and one for each result bean.
+     * @param results number of result beans on the page
+     */
+    public static void listReadsEstimated(final int results) {
+        final RequestMetrics metrics = CURRENT.get();
+
+        if (metrics != null) {
+            metrics.estimatedListReads += 1 + results;
+        }
+    }
+
+    public static void listRendered(final long startNanos, final int results) {
+        final RequestMetrics metrics = CURRENT.get();
+
+        if (metrics != null) {
+            metrics.listRenders++;
+            metrics.listRenderNanos += System.nanoTime() - startNanos;
+            metrics.listResults += results;
+        }
+    }
+
+    public static void pageRendered(final long startNanos) {
+        final RequestMetrics metrics = CURRENT.get();
+
+        if (metrics != null) {
+            metrics.pageRenders++;
+            metrics.pageRenderNanos += System.nanoTime() - startNanos;
+        }
+    }
+
+    public static void fragmentCacheLookup(final boolean hit) {
+        final RequestMetrics metrics = CURRENT.get();
+
+        if (metrics != null) {
+            if (hit) {
+                metrics.fragmentCacheHits++;
+            } else {
+                metrics.fragmentCacheMisses++;
+            }
+        }
+    }
+
+    /**
+     * Returns true if any news metrics were recorded in the request.
+     * @return true if any news metrics were recorded in the request
+     */
+    public boolean isEmpty() {
+        return imageCalls == 0 && contentCalls == 0 && linkedBeanResolutions == 0 && repositoryReads == 0
+                && listRenders == 0 && pageRenders == 0;
+    }
+
+    /**
+     * Returns the elapsed time of the request so far, or of the whole request once ended, in nanoseconds.
+     * @return the elapsed time of the request in nanoseconds
+     */
+    public long getRequestNanos() {
+        return (requestNanos > 0L ? requestNanos : System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Returns the metrics as a debug header value, e.g.
+     * <code>request.ms=35.2; reads=13; listReads~=11; linkedBeans=10/0; image=10/4.1ms; content=1/0.3ms; list=1/12.5ms/10; page=0/0.0ms; cache=0/0</code>.
+     * @return the metrics as a debug header value
+     */
+    public String toHeaderValue() {
+        return String.format(Locale.ROOT, "request.ms=%.1f; reads=%d; listReads~=%d; linkedBeans=%d/%d; image=%d/%.1fms; content=%d/%.1fms; "
+                + "list=%d/%.1fms/%d; page=%d/%.1fms; cache=%d/%d",
+                getRequestNanos() / 1e6, repositoryReads, estimatedListReads, linkedBeanResolutions, linkedBeanMisses,
+                imageCalls, imageNanos / 1e6, contentCalls, contentNanos / 1e6,
+                listRenders, listRenderNanos / 1e6, listResults, pageRenders, pageRenderNanos / 1e6,
+                fragmentCacheHits, fragmentCacheMisses);
+    }
+
+    private void linkedBeanResolved(final boolean found) {
+        linkedBeanResolutions++;
+        repositoryReads++;
+
+        if (!found) {
+            linkedBeanMisses++;
+        }
+    }
+}
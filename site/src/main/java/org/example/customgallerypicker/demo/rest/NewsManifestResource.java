@@ -0,0 +1,343 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Calendar;
+import java.util.zip.GZIPOutputStream;
+
+import javax.jcr.ItemNotFoundException;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.xml.bind.DatatypeConverter;
+
+import org.apache.commons.lang.StringUtils;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.hippoecm.hst.configuration.hosting.Mount;
+import org.hippoecm.hst.core.linking.HstLink;
+import org.hippoecm.hst.core.request.HstRequestContext;
+import org.hippoecm.hst.jaxrs.services.AbstractResource;
+import org.hippoecm.repository.util.RepoUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Plain JAX-RS resource streaming a JSON manifest of every published news document
+ * with its title, dates, canonical link and the resolved links of the news image and all its variants.
+ * <p>
+ * The response is produced incrementally from the JCR query result iterator, so the memory usage stays constant
+ * regardless of the repository size. The query has no <code>order by</code> clause, as sorting would load the whole
+ * result set first, so the documents are listed in no particular order.
+ * The response is gzipped if the client accepts it, and chunked by the container as the content length is unknown.
+ * </p>
+ * <p>
+ * Use the <code>since</code> query parameter (ISO 8601 date time or epoch millis) to pull only the documents
+ * published since then, e.g. <code>/site/api/news/manifest?since=2015-04-01T00:00:00Z</code>, passing the
+ * <code>generated</code> value of the previous response. As the depublished and deleted documents are not visible
+ * to the live site any more, an incremental response also lists the handle identifiers of all the currently
+ * published news documents in <code>ids</code>: a document pulled before and missing from <code>ids</code>
+ * has been depublished or deleted since.
+ * </p>
+ */
+@Path("/news/")
+public class NewsManifestResource extends AbstractResource {
+
+    private static Logger log = LoggerFactory.getLogger(NewsManifestResource.class);
+
+    private static final String NEWS_DOCUMENT_TYPE = "customgallerypickerdemo:newsdocument";
+
+    private static final String EMPTY_DOCBASE = "cafebabe-cafe-babe-cafe-babecafebabe";
+
+    /**
+     * Number of documents written between each flush.
+     */
+    private static final int FLUSH_INTERVAL = 100;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    @GET
+    @Path("/manifest")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getManifest(@Context HttpServletRequest servletRequest,
+            @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding,
+            @QueryParam("since") String since) {
+        final HstRequestContext requestContext = getRequestContext(servletRequest);
+        final Calendar sinceDate = parseSince(since);
+        final boolean gzip = StringUtils.contains(acceptEncoding, "gzip");
+
+        StreamingOutput output = new StreamingOutput() {
+            @Override
+            public void write(OutputStream out) throws IOException, WebApplicationException {
+                OutputStream target = (gzip ? new GZIPOutputStream(out, 8192) : out);
+
+                try {
+                    writeManifest(requestContext, sinceDate, target);
+                } catch (RepositoryException e) {
+                    log.error("Repository exception while streaming the news manifest.", e);
+                    throw new WebApplicationException(e);
+                } finally {
+                    if (gzip) {
+                        ((GZIPOutputStream) target).finish();
+                    }
+                }
+            }
+        };
+
+        Response.ResponseBuilder builder = Response.ok(output).header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+        if (gzip) {
+            builder.header("Content-Encoding", "gzip");
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Writes the manifest JSON of the published news documents to {@code out}.
+     * @param requestContext request context
+     * @param since lower bound of the publication date or null to write all
+     * @param out output stream
+     * @throws IOException IO exception
+     * @throws RepositoryException repository exception
+     */
+    private void writeManifest(final HstRequestContext requestContext, final Calendar since, final OutputStream out)
+            throws IOException, RepositoryException {
+        final Session session = requestContext.getSession();
+        final Mount siteMount = getSiteMount(requestContext);
+        final JsonGenerator generator = jsonFactory.createJsonGenerator(out, JsonEncoding.UTF8);
+
+        generator.writeStartObject();
+        generator.writeStringField("generated", DatatypeConverter.printDateTime(Calendar.getInstance()));
+
+        if (since != null) {
+            generator.writeStringField("since", DatatypeConverter.printDateTime(since));
+        }
+
+        generator.writeArrayFieldStart("documents");
+
+        final Query query = session.getWorkspace().getQueryManager().createQuery(createStatement(siteMount, since), Query.XPATH);
+        int count = 0;
+
+        for (NodeIterator nodeIt = query.execute().getNodes(); nodeIt.hasNext(); ) {
+            final Node documentNode = nodeIt.nextNode();
+
+            if (documentNode == null) {
+                continue;
+            }
+
+            try {
+                writeDocument(requestContext, siteMount, documentNode, generator);
+            } catch (RepositoryException e) {
+                log.warn("Skipping news document which cannot be read: {}", e.toString());
+            }
+
+            if (++count % FLUSH_INTERVAL == 0) {
+                generator.flush();
+            }
+        }
+
+        generator.writeEndArray();
+        generator.writeNumberField("count", count);
+
+        if (since != null) {
+            generator.writeArrayFieldStart("ids");
+
+            final Query idsQuery = session.getWorkspace().getQueryManager().createQuery(createStatement(siteMount, null), Query.XPATH);
+            int idCount = 0;
+
+            for (NodeIterator nodeIt = idsQuery.execute().getNodes(); nodeIt.hasNext(); ) {
+                final Node documentNode = nodeIt.nextNode();
+
+                if (documentNode == null) {
+                    continue;
+                }
+
+                generator.writeString(documentNode.getParent().getIdentifier());
+
+                if (++idCount % FLUSH_INTERVAL == 0) {
+                    generator.flush();
+                }
+            }
+
+            generator.writeEndArray();
+        }
+
+        generator.writeEndObject();
+        generator.close();
+    }
+
+    private void writeDocument(final HstRequestContext requestContext, final Mount siteMount, final Node documentNode,
+            final JsonGenerator generator) throws IOException, RepositoryException {
+        final Node handleNode = documentNode.getParent();
+
+        generator.writeStartObject();
+        generator.writeStringField("id", handleNode.getIdentifier());
+        generator.writeStringField("path", handleNode.getPath());
+        writeStringProperty(documentNode, "customgallerypickerdemo:title", "title", generator);
+        writeDateProperty(documentNode, "customgallerypickerdemo:date", "date", generator);
+        writeDateProperty(documentNode, "hippostdpubwf:publicationDate", "publicationDate", generator);
+        writeLink(requestContext, siteMount, handleNode, "link", generator);
+
+        if (documentNode.hasNode("customgallerypickerdemo:image")) {
+            writeImage(requestContext, siteMount, documentNode.getNode("customgallerypickerdemo:image"), generator);
+        }
+
+        generator.writeEndObject();
+    }
+
+    private void writeImage(final HstRequestContext requestContext, final Mount siteMount, final Node imageLinkNode,
+            final JsonGenerator generator) throws IOException, RepositoryException {
+        if (!imageLinkNode.hasProperty("hippo:docbase")) {
+            return;
+        }
+
+        final String docbase = imageLinkNode.getProperty("hippo:docbase").getString();
+
+        if (StringUtils.isBlank(docbase) || EMPTY_DOCBASE.equals(docbase)) {
+            return;
+        }
+
+        final Node imageHandleNode;
+
+        try {
+            imageHandleNode = requestContext.getSession().getNodeByIdentifier(docbase);
+        } catch (ItemNotFoundException e) {
+            log.debug("Cannot find the image handle node by docbase: {}", docbase);
+            return;
+        }
+
+        if (!imageHandleNode.hasNode(imageHandleNode.getName())) {
+            return;
+        }
+
+        final Node imageSetNode = imageHandleNode.getNode(imageHandleNode.getName());
+
+        generator.writeObjectFieldStart("image");
+        generator.writeStringField("path", imageHandleNode.getPath());
+        generator.writeObjectFieldStart("renditions");
+
+        Node variantNode;
+
+        for (NodeIterator nodeIt = imageSetNode.getNodes(); nodeIt.hasNext(); ) {
+            variantNode = nodeIt.nextNode();
+
+            if (variantNode != null && variantNode.isNodeType("hippogallery:image")) {
+                writeLink(requestContext, siteMount, variantNode, variantNode.getName(), generator);
+            }
+        }
+
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+
+    private void writeLink(final HstRequestContext requestContext, final Mount siteMount, final Node node,
+            final String fieldName, final JsonGenerator generator) throws IOException {
+        final HstLink link = requestContext.getHstLinkCreator().create(node, siteMount);
+
+        if (link != null && !link.isNotFound()) {
+            generator.writeStringField(fieldName, link.toUrlForm(requestContext, true));
+        }
+    }
+
+    private void writeStringProperty(final Node node, final String propName, final String fieldName,
+            final JsonGenerator generator) throws IOException, RepositoryException {
+        if (node.hasProperty(propName)) {
+            generator.writeStringField(fieldName, node.getProperty(propName).getString());
+        }
+    }
+
+    private void writeDateProperty(final Node node, final String propName, final String fieldName,
+            final JsonGenerator generator) throws IOException, RepositoryException {
+        if (node.hasProperty(propName)) {
+            generator.writeStringField(fieldName, DatatypeConverter.printDateTime(node.getProperty(propName).getDate()));
+        }
+    }
+
+    /**
+     * Creates the XPath query statement for the published news documents under the site content base,
+     * without ordering, so that the result is iterated lazily.
+     * @param siteMount site mount
+     * @param since lower bound of the publication date or null
+     * @return XPath query statement
+     */
+    private String createStatement(final Mount siteMount, final Calendar since) {
+        String contentPath = siteMount.getContentPath();
+
+        if (StringUtils.isBlank(contentPath)) {
+            contentPath = "/content/documents";
+        }
+
+        StringBuilder sb = new StringBuilder(256)
+            .append("/jcr:root").append(contentPath)
+            .append("//element(*,").append(NEWS_DOCUMENT_TYPE).append(")[@hippo:availability='live'");
+
+        if (since != null) {
+            sb.append(" and @hippostdpubwf:publicationDate >= xs:dateTime('")
+                .append(DatatypeConverter.printDateTime(since)).append("')");
+        }
+
+        sb.append(']');
+
+        return RepoUtils.encodeXpath(sb.toString());
+    }
+
+    /**
+     * Returns the site mount to create the canonical links for, which is the parent mount of this REST mount.
+     * @param requestContext request context
+     * @return the site mount
+     */
+    private Mount getSiteMount(final HstRequestContext requestContext) {
+        final Mount mount = requestContext.getResolvedMount().getMount();
+        return (mount.getParent() != null ? mount.getParent() : mount);
+    }
+
+    private Calendar parseSince(final String since) {
+        if (StringUtils.isBlank(since)) {
+            return null;
+        }
+
+        try {
+            if (StringUtils.isNumeric(since)) {
+                Calendar cal = Calendar.getInstance();
+                cal.setTimeInMillis(Long.parseLong(since));
+                return cal;
+            }
+
+            return DatatypeConverter.parseDateTime(since);
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(Response.status(Response.Status.BAD_REQUEST)
+                    .entity("Invalid 'since' parameter: " + since).build());
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ *  Copyright 2015-2015 Hippo B.V. (http://www.onehippo.com)
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.example.customgallerypicker.demo.rewriter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.jcr.Node;
+
+import org.apache.commons.lang.StringUtils;
+import org.example.customgallerypicker.demo.beans.ImageManifestEntry;
+import org.hippoecm.hst.configuration.hosting.Mount;
+import org.hippoecm.hst.content.rewriter.impl.SimpleContentRewriter;
+import org.hippoecm.hst.core.linking.HstLink;
+import org.hippoecm.hst.core.request.HstRequestContext;
+import org.hippoecm.hst.site.HstServices;
+
+/**
+ * {@link SimpleContentRewriter} extension which resolves the embedded image links
+ * from the image manifest stored on the published variant instead of resolving each docbase in the repository,
+ * and which adds the original <code>width</code> and <code>height</code> attributes to the image tags.
+ * <p>
+ * Links not found in the manifest (e.g. document links or images added after the last publication)
+ * are resolved by the default {@link SimpleContentRewriter} logic.
+ * </p>
+ * <p>
+ * The image handle paths and the dimensions stored in the manifest are used as they are, without reading
+ * the repository, as the repository modules relocate the manifest entries whenever a binary folder moves.
+ * </p>
+ */
+public class ImageManifestContentRewriter extends SimpleContentRewriter {
+
+    private static final String DOCUMENT_PATH_PLACEHOLDER = "{_document}/";
+
+    private static final String ORIGINAL_VARIANT_NAME = "hippogallery:original";
+
+    private static final Pattern IMG_TAG_PATTERN = Pattern.compile("<img\\b[^>]*>", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern SRC_ATTR_PATTERN = Pattern.compile("\\bsrc\\s*=\\s*\"([^\"]*)\"", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern SIZE_ATTR_PATTERN = Pattern.compile("\\b(width|height)\\s*=", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Image manifest entries mapped by the link name.
+     */
+    private final Map<String, ImageManifestEntry> entries;
+
+    /**
+     * Image handle paths resolved from the manifest.
+     */
+    private final Set<String> resolvedHandlePaths = new LinkedHashSet<String>();
+
+    /**
+     * Names of the binary links not found in the manifest, resolved by the default logic.
+     */
+    private final Set<String> unresolvedLinkNames = new LinkedHashSet<String>();
+
+    /**
+     * Image manifest entries of the original images mapped by the link URL written in the image tags, to add the dimensions.
+     */
+    private final Map<String, ImageManifestEntry> resolvedOriginals = new HashMap<String, ImageManifestEntry>();
+
+    /**
+     * Link URLs of the original images resolved from the manifest, in the order of appearance.
+     */
+    private final List<String> resolvedImageUrls = new ArrayList<String>();
+
+    private String binariesPrefix;
+
+    /**
+     * Constructor.
+     * @param imageManifest the image manifest entries of the document
+     */
+    public ImageManifestContentRewriter(final List<ImageManifestEntry> imageManifest) {
+        super();
+        entries = new HashMap<String, ImageManifestEntry>();
+
+        for (ImageManifestEntry entry : imageManifest) {
+            entries.put(entry.getLinkName(), entry);
+        }
+    }
+
+    @Override
+    public String rewrite(String html, Node node, HstRequestContext requestContext) {
+        return addImageDimensions(super.rewrite(html, node, requestContext));
+    }
+
+    @Override
+    public String rewrite(String html, Node node, HstRequestContext requestContext, Mount targetMount) {
+        return addImageDimensions(super.rewrite(html, node, requestContext, targetMount));
+    }
+
+    /**
+     * Returns the link URLs of the original images resolved from the manifest by the last rewriting.
+     * @return the link URLs of the original images resolved from the manifest
+     */
+    public List<String> getResolvedImageUrls() {
+        return Collections.unmodifiableList(resolvedImageUrls);
+    }
+
+    /**
+     * Returns the paths of the image handles resolved from the manifest by the last rewriting.
+     * @return the paths of the image handles resolved from the manifest
+     */
+    public Collection<String> getResolvedHandlePaths() {
+        return Collections.unmodifiableSet(resolvedHandlePaths);
+    }
+
+    /**
+     * Returns the names of the binary links not found in the manifest by the last rewriting,
+     * e.g. images added after the last publication, which were resolved by the default logic.
+     * @return the names of the binary links not found in the manifest
+     */
+    public Collection<String> getUnresolvedLinkNames() {
+        return Collections.unmodifiableSet(unresolvedLinkNames);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If the first path segment is found in the image manifest, this creates a binary link
+     * from the stored image handle path without resolving the link node docbase.
+     * </p>
+     */
+    @Override
+    protected HstLink getBinaryLink(String path, Node hippoHtmlNode, HstRequestContext requestContext, Mount targetMount) {
+        final String linkName = StringUtils.substringBefore(path, "/");
+        final ImageManifestEntry entry = entries.get(linkName);
+        final String handlePath = (entry != null ? entry.getHandlePath() : null);
+
+        if (StringUtils.isEmpty(handlePath)) {
+            unresolvedLinkNames.add(linkName);
+            return super.getBinaryLink(path, hippoHtmlNode, requestContext, targetMount);
+        }
+
+        resolvedHandlePaths.add(handlePath);
+
+        String variantName = StringUtils.substringAfter(path, DOCUMENT_PATH_PLACEHOLDER);
+
+        if (StringUtils.isEmpty(variantName)) {
+            variantName = ORIGINAL_VARIANT_NAME;
+        }
+
+        final String resourcePath = ImageManifestEntry.getVariantPath(handlePath, variantName);
+        final Mount mount = (targetMount != null ? targetMount : requestContext.getResolvedMount().getMount());
+        final HstLink link = requestContext.getHstLinkCreator().create(getBinariesPrefix() + resourcePath, mount, true);
+
+        if (link != null && ORIGINAL_VARIANT_NAME.equals(variantName)) {
+            resolvedOriginals.put(link.toUrlForm(requestContext, isFullyQualifiedLinks()), entry);
+            resolvedImageUrls.add(link.toUrlForm(requestContext, false));
+        }
+
+        return link;
+    }
+
+    /**
+     * Adds <code>width</code> and <code>height</code> attributes to the image tags pointing to an original image
+     * resolved from the manifest, unless the image tag has any of them already.
+     * @param html rewritten html
+     * @return html having the image dimensions
+     */
+    private String addImageDimensions(final String html) {
+        if (html == null || resolvedOriginals.isEmpty()) {
+            return html;
+        }
+
+        final Matcher imgMatcher = IMG_TAG_PATTERN.matcher(html);
+        final StringBuffer sb = new StringBuffer(html.length() + 64);
+        String imgTag;
+        Matcher srcMatcher;
+        ImageManifestEntry entry;
+
+        while (imgMatcher.find()) {
+            imgTag = imgMatcher.group();
+            srcMatcher = SRC_ATTR_PATTERN.matcher(imgTag);
+            entry = null;
+
+            if (srcMatcher.find() && !SIZE_ATTR_PATTERN.matcher(imgTag).find()) {
+                entry = resolvedOriginals.get(srcMatcher.group(1));
+            }
+
+            if (entry != null && entry.getWidth() > 0 && entry.getHeight() > 0) {
+                imgTag = imgTag.substring(0, 4) + " width=\"" + entry.getWidth() + "\" height=\"" + entry.getHeight() + "\"" + imgTag.substring(4);
+            }
+
+            imgMatcher.appendReplacement(sb, Matcher.quoteReplacement(imgTag));
+        }
+
+        imgMatcher.appendTail(sb);
+        return sb.toString();
+    }
+
+    private String getBinariesPrefix() {
+        if (binariesPrefix == null) {
+            binariesPrefix = HstServices.getComponentManager().getContainerConfiguration().getString("binaries.prefix.path", "/binaries");
+        }
+
+        return binariesPrefix;
+    }
+}
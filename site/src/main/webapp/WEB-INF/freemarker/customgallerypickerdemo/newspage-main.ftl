@@ -41,7 +41,22 @@
     <#if document.introduction??>
         <p>${document.introduction}</p>
     </#if>
-    <#if document.image?? && document.image.original??>
+<#-- @ftlvariable name="fragment" type="org.example.customgallerypicker.demo.cache.NewsFragment" -->
+    <#if fragment??>
+        <#list fragment.preloadImageUrls as preloadImageUrl>
+            <@hst.headContribution category="htmlHead">
+                <link rel="preload" as="image" href="${preloadImageUrl}"/>
+            </@hst.headContribution>
+        </#list>
+    </#if>
+    <#if fragment?? && fragment.imageUrl??>
+        <figure>
+            <img src="${fragment.imageUrl}" title="${fragment.imageFileName!}" alt="${fragment.imageFileName!}"/>
+            <#if fragment.imageDescription??>
+                <figcaption>${fragment.imageDescription}</figcaption>
+            </#if>
+        </figure>
+    <#elseif !fragment?? && document.image?? && document.image.original??>
         <@hst.link var="img" hippobean=document.image.original/>
         <figure>
             <img src="${img}" title="${document.image.fileName}" alt="${document.image.fileName}"/>
@@ -50,6 +65,10 @@
             </#if>
         </figure>
     </#if>
-    <@hst.html hippohtml=document.content/>
+    <#if fragment??>
+        <#if fragment.content??>${fragment.content}</#if>
+    <#else>
+        <@hst.html hippohtml=document.content/>
+    </#if>
 </article>
 </#if>
\ No newline at end of file